@@ -0,0 +1,53 @@
+package com.ecarx.asrapi.bench;
+
+import com.ecarx.asrapi.domain.ASRResponse;
+import com.ecarx.asrapi.dto.nano.ASR;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/6
+ * @desc decoding of an upstream down body through ASRResponse, as done by HttpService.handleASRDown
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DownBodyBenchmark {
+
+	private byte[] body;
+
+	@Setup
+	public void setup() {
+		byte[] middle = Frames.frame(Frames.middle());
+		body = Frames.concat(middle, middle, middle, middle, middle, middle, middle, Frames.frame(Frames.last()));
+	}
+
+	@Benchmark
+	public void readDownBody(Blackhole blackhole) {
+		Buffer upstream = new Buffer().write(body);
+		Flux.<ASR.APIResponse>create(sink -> {
+			try (ASRResponse response = new ASRResponse(ResponseBody.create(null, body.length, upstream), sink, 1048576)) {
+				response.drain();
+				sink.complete();
+			} catch (IOException e) {
+				sink.error(e);
+			}
+		}).subscribe(blackhole::consume);
+	}
+}
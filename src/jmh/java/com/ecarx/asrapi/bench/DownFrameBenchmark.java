@@ -0,0 +1,64 @@
+package com.ecarx.asrapi.bench;
+
+import com.ecarx.asrapi.codec.FrameEncoder;
+import com.ecarx.asrapi.dto.nano.ASR;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/6
+ * @desc down frame encoding of ASRHandler.handleASRDown, buffers are released as the server does
+ * after writing them
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DownFrameBenchmark {
+
+	@Param({"heap", "direct", "pooled"})
+	private String factoryType;
+
+	private DataBufferFactory factory;
+
+	private ASR.APIResponse response;
+
+	@Setup
+	public void setup() {
+		response = Frames.middle();
+		switch (factoryType) {
+			case "direct":
+				factory = new DefaultDataBufferFactory(true);
+				break;
+			case "pooled":
+				factory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+				break;
+			default:
+				factory = new DefaultDataBufferFactory();
+		}
+	}
+
+	@Benchmark
+	public int encode() {
+		DataBuffer buffer = FrameEncoder.encode(response, factory);
+		int        length = buffer.readableByteCount();
+		DataBufferUtils.release(buffer);
+		return length;
+	}
+}
@@ -0,0 +1,82 @@
+package com.ecarx.asrapi.bench;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.google.protobuf.nano.MessageNano;
+
+import java.util.Random;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/6
+ * @desc realistic frames shared by the benchmarks
+ */
+final class Frames {
+
+	private Frames() {
+	}
+
+	static ASR.APIRequest param() {
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = ASR.API_REQ_TYPE_PARAM;
+		request.param = new ASR.ApiParam();
+		request.param.cuid = "c4b8a1d2-7e0f-4a55-9f36-0d1c2b3a4e5f";
+		request.param.appid = "10842";
+		request.param.apikey = "com.ecarx.voice";
+		request.param.sampleRate = 16000;
+		request.param.format = "pcm";
+		return request;
+	}
+
+	// pcm of the given duration at 16 kHz
+	static ASR.APIRequest data(int millis) {
+		byte[] pcm = new byte[millis * 32];
+		new Random(millis).nextBytes(pcm);
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = ASR.API_REQ_TYPE_DATA;
+		request.data = new ASR.ApiData();
+		request.data.len = pcm.length;
+		request.data.postData = pcm;
+		return request;
+	}
+
+	static ASR.APIResponse middle() {
+		ASR.APIResponse response = new ASR.APIResponse();
+		response.type = ASR.API_RESP_TYPE_MIDDLE;
+		response.id = "c4b8a1d2-7e0f-4a55-9f36-0d1c2b3a4e5f";
+		response.result = new ASR.ASRResult();
+		response.result.word = new String[]{"导航", "到", "杭州", "东站"};
+		return response;
+	}
+
+	static ASR.APIResponse last() {
+		ASR.APIResponse response = middle();
+		response.type = ASR.API_RESP_TYPE_LAST;
+		return response;
+	}
+
+	// little-endian length prefix followed by the message
+	static byte[] frame(MessageNano message) {
+		byte[] body  = MessageNano.toByteArray(message);
+		byte[] frame = new byte[body.length + 4];
+		frame[0] = (byte) body.length;
+		frame[1] = (byte) (body.length >>> 8);
+		frame[2] = (byte) (body.length >>> 16);
+		frame[3] = (byte) (body.length >>> 24);
+		System.arraycopy(body, 0, frame, 4, body.length);
+		return frame;
+	}
+
+	static byte[] concat(byte[]... frames) {
+		int length = 0;
+		for (byte[] frame : frames) {
+			length += frame.length;
+		}
+		byte[] bytes  = new byte[length];
+		int    offset = 0;
+		for (byte[] frame : frames) {
+			System.arraycopy(frame, 0, bytes, offset, frame.length);
+			offset += frame.length;
+		}
+		return bytes;
+	}
+}
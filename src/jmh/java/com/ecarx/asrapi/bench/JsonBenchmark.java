@@ -0,0 +1,58 @@
+package com.ecarx.asrapi.bench;
+
+import com.ecarx.asrapi.codec.EventStreamEncoder;
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/6
+ * @desc json serialization of down responses for /json/down, reflective Jackson against the
+ * EventStreamEncoder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JsonBenchmark {
+
+	private ObjectMapper objectMapper;
+
+	private ASR.APIResponse response;
+
+	private DataBufferFactory factory;
+
+	@Setup
+	public void setup() {
+		objectMapper = new ObjectMapper();
+		response = Frames.middle();
+		factory = new DefaultDataBufferFactory();
+	}
+
+	@Benchmark
+	public byte[] serializeResponse() throws Exception {
+		return objectMapper.writeValueAsBytes(response);
+	}
+
+	@Benchmark
+	public int encodeEvent() {
+		DataBuffer buffer = EventStreamEncoder.encode(response, factory);
+		int        length = buffer.readableByteCount();
+		DataBufferUtils.release(buffer);
+		return length;
+	}
+}
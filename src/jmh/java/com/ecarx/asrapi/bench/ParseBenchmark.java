@@ -0,0 +1,51 @@
+package com.ecarx.asrapi.bench;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.google.protobuf.nano.MessageNano;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/6
+ * @desc nano parsing of up and down messages
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParseBenchmark {
+
+	// pcm per DATA frame
+	@Param({"20", "160"})
+	private int millis;
+
+	private byte[] request;
+
+	private byte[] response;
+
+	@Setup
+	public void setup() {
+		request = MessageNano.toByteArray(Frames.data(millis));
+		response = MessageNano.toByteArray(Frames.middle());
+	}
+
+	@Benchmark
+	public ASR.APIRequest parseRequest() throws Exception {
+		return ASR.APIRequest.parseFrom(request);
+	}
+
+	@Benchmark
+	public ASR.APIResponse parseResponse() throws Exception {
+		return ASR.APIResponse.parseFrom(response);
+	}
+}
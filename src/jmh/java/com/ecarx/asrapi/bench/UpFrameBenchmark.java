@@ -0,0 +1,115 @@
+package com.ecarx.asrapi.bench;
+
+import com.ecarx.asrapi.codec.FrameDecoder;
+import com.ecarx.asrapi.codec.RequestPool;
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.google.protobuf.nano.MessageNano;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.util.List;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/6
+ * @desc up frame extraction of ASRService.handleASRUp, one client buffer carrying PARAM and
+ * several DATA frames, either whole or split in two
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UpFrameBenchmark {
+
+	@Param({"false", "true"})
+	private boolean direct;
+
+	private DefaultDataBufferFactory factory;
+
+	private byte[] head;
+
+	private byte[] tail;
+
+	private byte[] frames;
+
+	// one stream of frames, as the up path keeps per session
+	private FrameDecoder<ASR.APIRequest> decoder;
+
+	private RequestPool pool;
+
+	private FrameDecoder<ASR.APIRequest> pooledDecoder;
+
+	private byte[] scratch;
+
+	@Setup
+	public void setup() {
+		factory = new DefaultDataBufferFactory(direct);
+		decoder = decoder();
+		pool = new RequestPool(128);
+		pooledDecoder = new FrameDecoder<>(pool::acquire, pool::settle, 1048576);
+		scratch = new byte[4096];
+		byte[] data = Frames.frame(Frames.data(20));
+		frames = Frames.concat(Frames.frame(Frames.param()), data, data, data, data);
+		head = new byte[frames.length / 2];
+		tail = new byte[frames.length - head.length];
+		System.arraycopy(frames, 0, head, 0, head.length);
+		System.arraycopy(frames, head.length, tail, 0, tail.length);
+	}
+
+	@Benchmark
+	public List<ASR.APIRequest> decodeWhole() throws Exception {
+		return decoder().decode(buffer(frames));
+	}
+
+	@Benchmark
+	public List<ASR.APIRequest> decodeSplit() throws Exception {
+		FrameDecoder<ASR.APIRequest> decoder = decoder();
+		decoder.decode(buffer(head));
+		return decoder.decode(buffer(tail));
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/11
+	 * @desc decode and serialize every frame for the upstream, as the up path does end to end
+	 */
+	@Benchmark
+	public int forward() throws Exception {
+		int size = 0;
+		for (ASR.APIRequest request : decoder.decode(buffer(frames))) {
+			size += MessageNano.toByteArray(request).length;
+		}
+		return size;
+	}
+
+	@Benchmark
+	public int forwardPooled() throws Exception {
+		int size = 0;
+		for (ASR.APIRequest request : pooledDecoder.decode(buffer(frames))) {
+			int length = request.getSerializedSize();
+			MessageNano.toByteArray(request, scratch, 0, length);
+			pool.recycle(request);
+			size += length;
+		}
+		return size;
+	}
+
+	private static FrameDecoder<ASR.APIRequest> decoder() {
+		return new FrameDecoder<>(ASR.APIRequest::new, 1048576);
+	}
+
+	private DataBuffer buffer(byte[] bytes) {
+		return direct ? factory.allocateBuffer(bytes.length).write(bytes) : factory.wrap(bytes);
+	}
+}
@@ -0,0 +1,153 @@
+package com.ecarx.asrapi.audio;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import io.micrometer.core.instrument.Counter;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/5
+ * @desc per session stage of the up pipeline which drops leading and trailing silence. Leading
+ * silence is held back and only its last pre-roll is forwarded once speech starts. Silence after
+ * speech is forwarded for the hangover, beyond it it is held back as a pause: released in front of
+ * the next speech frame, so pauses inside an utterance reach the backend, and dropped only once the
+ * utterance ends with LAST or CANCEL. With an endpoint set, LAST is sent upstream after that much
+ * trailing silence and the rest of the client stream is dropped. A pause held back is bounded by
+ * MAX_PAUSE, its oldest frames are dropped beyond that.
+ * Not thread safe, frames of a session arrive in order on one thread.
+ */
+public class SilenceFilter {
+
+	// longest pause held back, 10 s of 16 kHz pcm is 320 KB
+	static final long MAX_PAUSE = 10000;
+
+	private final VoiceActivityDetector detector;
+
+	private final long preRoll;
+
+	private final long hangover;
+
+	private final long endpoint;
+
+	private final Counter dropped;
+
+	private final Counter endpointed;
+
+	private final ArrayDeque<ASR.APIRequest> leading = new ArrayDeque<>();
+
+	private long leadingMillis;
+
+	private final ArrayDeque<ASR.APIRequest> pause = new ArrayDeque<>();
+
+	private long pauseMillis;
+
+	private long silenceMillis;
+
+	private boolean speaking;
+
+	private boolean ended;
+
+	public SilenceFilter(VoiceActivityDetector detector, long preRoll, long hangover, long endpoint,
+			Counter dropped, Counter endpointed) {
+		this.detector = detector;
+		this.preRoll = preRoll;
+		this.hangover = hangover;
+		this.endpoint = endpoint;
+		this.dropped = dropped;
+		this.endpointed = endpointed;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/5
+	 * @desc pass the frame, and whatever it releases, to the next stage
+	 */
+	public void filter(ASR.APIRequest frame, Consumer<ASR.APIRequest> next) {
+
+		if (ASR.API_REQ_TYPE_DATA != frame.apiReqType || null == frame.data || null == frame.data.postData) {
+			if (ended && ASR.API_REQ_TYPE_LAST == frame.apiReqType) {
+				// LAST was already sent on the client's behalf
+				return;
+			}
+			if (ASR.API_REQ_TYPE_LAST == frame.apiReqType || ASR.API_REQ_TYPE_CANCEL == frame.apiReqType) {
+				// the utterance is over, a pause held back was trailing silence
+				dropPause();
+			}
+			next.accept(frame);
+			return;
+		}
+		if (ended) {
+			dropped.increment();
+			return;
+		}
+
+		byte[]  pcm    = frame.data.postData;
+		long    millis = pcm.length / VoiceActivityDetector.BYTES_PER_MILLI;
+		boolean speech = detector.isSpeech(pcm);
+		if (!speaking) {
+			if (!speech) {
+				leading.addLast(frame);
+				leadingMillis += millis;
+				while (leadingMillis > preRoll && !leading.isEmpty()) {
+					leadingMillis -= leading.removeFirst().data.postData.length / VoiceActivityDetector.BYTES_PER_MILLI;
+					dropped.increment();
+				}
+				return;
+			}
+			speaking = true;
+			while (!leading.isEmpty()) {
+				next.accept(leading.removeFirst());
+			}
+			leadingMillis = 0;
+		}
+
+		if (speech) {
+			silenceMillis = 0;
+			// speech resumed, the pause was part of the utterance
+			while (!pause.isEmpty()) {
+				next.accept(pause.removeFirst());
+			}
+			pauseMillis = 0;
+			next.accept(frame);
+			return;
+		}
+		silenceMillis += millis;
+		if (silenceMillis <= hangover) {
+			next.accept(frame);
+		} else {
+			pause.addLast(frame);
+			pauseMillis += millis;
+			while (pauseMillis > MAX_PAUSE && !pause.isEmpty()) {
+				pauseMillis -= pause.removeFirst().data.postData.length / VoiceActivityDetector.BYTES_PER_MILLI;
+				dropped.increment();
+			}
+		}
+		if (endpoint > 0 && silenceMillis >= endpoint) {
+			ended = true;
+			dropPause();
+			endpointed.increment();
+			next.accept(last());
+		}
+	}
+
+	public boolean isEnded() {
+		return ended;
+	}
+
+	private void dropPause() {
+		while (!pause.isEmpty()) {
+			pause.removeFirst();
+			dropped.increment();
+		}
+		pauseMillis = 0;
+	}
+
+	private static ASR.APIRequest last() {
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = ASR.API_REQ_TYPE_LAST;
+		request.last = new ASR.ApiLast();
+		return request;
+	}
+}
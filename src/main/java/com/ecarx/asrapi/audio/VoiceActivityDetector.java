@@ -0,0 +1,65 @@
+package com.ecarx.asrapi.audio;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/5
+ * @desc energy and zero-crossing speech detector for 16 bit little-endian mono pcm. A frame is
+ * speech when it is loud enough, or half as loud with the high zero-crossing rate of unvoiced
+ * consonants. Allocation free and stateless, one instance may be shared.
+ */
+public class VoiceActivityDetector {
+
+	public static final String FORMAT = "pcm";
+
+	public static final int SAMPLE_RATE = 16000;
+
+	// 16 bit mono samples at 16 kHz
+	public static final int BYTES_PER_MILLI = SAMPLE_RATE * 2 / 1000;
+
+	private final int energy;
+
+	private final double zeroCrossing;
+
+	public VoiceActivityDetector(int energy, double zeroCrossing) {
+		this.energy = energy;
+		this.zeroCrossing = zeroCrossing;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/5
+	 * @desc true when the audio format is supported
+	 */
+	public static boolean supports(String format, int sampleRate) {
+		return FORMAT.equalsIgnoreCase(format) && SAMPLE_RATE == sampleRate;
+	}
+
+	public boolean isSpeech(byte[] pcm) {
+		return isSpeech(pcm, 0, pcm.length);
+	}
+
+	public boolean isSpeech(byte[] pcm, int offset, int length) {
+
+		int samples = length / 2;
+		if (0 == samples) {
+			return false;
+		}
+		long sum       = 0;
+		int  crossings = 0;
+		int  previous  = sample(pcm, offset);
+		for (int i = 0; i < samples; i++) {
+			int sample = sample(pcm, offset + 2 * i);
+			sum += Math.abs(sample);
+			if ((sample ^ previous) < 0) {
+				crossings++;
+			}
+			previous = sample;
+		}
+		long mean = sum / samples;
+		return mean >= energy || (2 * mean >= energy && crossings >= zeroCrossing * samples);
+	}
+
+	private static int sample(byte[] pcm, int index) {
+		return (short) ((pcm[index] & 0xFF) | (pcm[index + 1] << 8));
+	}
+}
@@ -0,0 +1,167 @@
+package com.ecarx.asrapi.codec;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/10
+ * @desc encoder of asr responses as server-sent events carrying json, one event per response.
+ * The exact utf-8 size is computed first, then the event is written straight into a buffer of the
+ * given factory, no reflection and no intermediate strings or arrays. The protobuf bookkeeping
+ * properties Jackson used to expose (cachedSize, serializedSize) are not written, so the empty last
+ * marker of LAST responses is written as {}.
+ * <pre>
+ * data:{"type":1,"id":"..","errNo":0,"errMsg":"","result":{"word":[".."],"uncertainWord":[]},"last":null}
+ * </pre>
+ */
+public final class EventStreamEncoder {
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+	private EventStreamEncoder() {
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/10
+	 * @desc encode one event, the caller owns the returned buffer and must release it
+	 */
+	public static DataBuffer encode(ASR.APIResponse response, DataBufferFactory factory) {
+
+		int        length = write(response, null);
+		DataBuffer buffer = factory.allocateBuffer(length);
+		write(response, buffer.asByteBuffer(buffer.writePosition(), length));
+		buffer.writePosition(buffer.writePosition() + length);
+		return buffer;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/10
+	 * @desc write the event into out and return its size, only the size is computed when out is null
+	 */
+	private static int write(ASR.APIResponse response, ByteBuffer out) {
+
+		int n = ascii("data:{\"type\":", out);
+		n += number(response.type, out);
+		n += ascii(",\"id\":", out);
+		n += string(response.id, out);
+		n += ascii(",\"errNo\":", out);
+		n += number(response.errNo, out);
+		n += ascii(",\"errMsg\":", out);
+		n += string(response.errMsg, out);
+		n += ascii(",\"result\":", out);
+		if (null == response.result) {
+			n += ascii("null", out);
+		} else {
+			n += ascii("{\"word\":", out);
+			n += strings(response.result.word, out);
+			n += ascii(",\"uncertainWord\":", out);
+			n += strings(response.result.uncertainWord, out);
+			n += ascii("}", out);
+		}
+		n += ascii(null == response.last ? ",\"last\":null" : ",\"last\":{}", out);
+		n += ascii("}\n\n", out);
+		return n;
+	}
+
+	private static int strings(String[] values, ByteBuffer out) {
+		if (null == values) {
+			return ascii("null", out);
+		}
+		int n = ascii("[", out);
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				n += ascii(",", out);
+			}
+			n += string(values[i], out);
+		}
+		return n + ascii("]", out);
+	}
+
+	private static int string(String value, ByteBuffer out) {
+
+		if (null == value) {
+			return ascii("null", out);
+		}
+		int n = ascii("\"", out);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ('"' == c || '\\' == c) {
+				n += put(out, '\\', c);
+			} else if (c < 0x20) {
+				n += control(c, out);
+			} else if (c < 0x80) {
+				n += put(out, c);
+			} else if (c < 0x800) {
+				n += put(out, 0xC0 | (c >> 6), 0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int code = Character.toCodePoint(c, value.charAt(++i));
+				n += put(out, 0xF0 | (code >> 18), 0x80 | ((code >> 12) & 0x3F));
+				n += put(out, 0x80 | ((code >> 6) & 0x3F), 0x80 | (code & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogate, replaced as String.getBytes does
+				n += put(out, '?');
+			} else {
+				n += put(out, 0xE0 | (c >> 12), 0x80 | ((c >> 6) & 0x3F));
+				n += put(out, 0x80 | (c & 0x3F));
+			}
+		}
+		return n + ascii("\"", out);
+	}
+
+	private static int control(char c, ByteBuffer out) {
+		switch (c) {
+			case '\n':
+				return put(out, '\\', 'n');
+			case '\r':
+				return put(out, '\\', 'r');
+			case '\t':
+				return put(out, '\\', 't');
+			case '\b':
+				return put(out, '\\', 'b');
+			case '\f':
+				return put(out, '\\', 'f');
+			default:
+				return put(out, '\\', 'u') + put(out, '0', '0') + put(out, HEX[c >> 4], HEX[c & 0xF]);
+		}
+	}
+
+	private static int number(long value, ByteBuffer out) {
+		if (value < 0) {
+			return put(out, '-') + number(-value, out);
+		}
+		if (value >= 10) {
+			return number(value / 10, out) + put(out, (int) ('0' + value % 10));
+		}
+		return put(out, (int) ('0' + value));
+	}
+
+	private static int ascii(String value, ByteBuffer out) {
+		if (null != out) {
+			for (int i = 0; i < value.length(); i++) {
+				out.put((byte) value.charAt(i));
+			}
+		}
+		return value.length();
+	}
+
+	private static int put(ByteBuffer out, int b) {
+		if (null != out) {
+			out.put((byte) b);
+		}
+		return 1;
+	}
+
+	private static int put(ByteBuffer out, int b1, int b2) {
+		if (null != out) {
+			out.put((byte) b1).put((byte) b2);
+		}
+		return 2;
+	}
+}
@@ -0,0 +1,165 @@
+package com.ecarx.asrapi.codec;
+
+import com.google.protobuf.nano.CodedInputByteBufferNano;
+import com.google.protobuf.nano.InvalidProtocolBufferNanoException;
+import com.google.protobuf.nano.MessageNano;
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/19
+ * @desc incremental decoder of little-endian length-prefixed nano frames. A frame may be split
+ * across buffers or several frames may share one buffer, partial frames are kept until complete.
+ * Not thread safe, use one decoder per stream.
+ */
+public class FrameDecoder<T extends MessageNano> {
+
+	public static final int HEADER_SIZE = 4;
+
+	private final Supplier<T> factory;
+
+	// applied to every parsed frame, e.g. to settle pooled frames
+	private final UnaryOperator<T> parsed;
+
+	private final int maxFrameSize;
+
+	// length of the frame being decoded, -1 while the header is incomplete
+	private int frameLength = -1;
+
+	private int header;
+
+	private int headerRead;
+
+	// body of a frame which spans several buffers, also used to parse direct buffers
+	private byte[] scratch = new byte[0];
+
+	private int scratchRead;
+
+	public FrameDecoder(Supplier<T> factory, int maxFrameSize) {
+		this(factory, UnaryOperator.identity(), maxFrameSize);
+	}
+
+	public FrameDecoder(Supplier<T> factory, UnaryOperator<T> parsed, int maxFrameSize) {
+		this.factory = factory;
+		this.parsed = parsed;
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/19
+	 * @desc decode all complete frames of the buffer, the buffer is fully consumed but not released
+	 */
+	public List<T> decode(DataBuffer buffer) throws IOException {
+		List<T> frames = decode(buffer.asByteBuffer());
+		buffer.readPosition(buffer.writePosition());
+		return frames;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/19
+	 * @desc decode all complete frames of the buffer, the buffer is fully consumed
+	 */
+	public List<T> decode(ByteBuffer buffer) throws IOException {
+
+		List<T> frames = Collections.emptyList();
+		while (buffer.hasRemaining()) {
+			if (frameLength < 0 && !readHeader(buffer)) {
+				break;
+			}
+			T frame = readBody(buffer);
+			if (null == frame) {
+				continue;
+			}
+			if (frames.isEmpty()) {
+				frames = new ArrayList<>(2);
+			}
+			frames.add(frame);
+		}
+		return frames;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/19
+	 * @desc true when there are no buffered bytes of an incomplete frame
+	 */
+	public boolean isEmpty() {
+		return frameLength < 0 && 0 == headerRead;
+	}
+
+	private boolean readHeader(ByteBuffer buffer) throws InvalidProtocolBufferNanoException {
+		while (headerRead < HEADER_SIZE && buffer.hasRemaining()) {
+			header |= (buffer.get() & 0xFF) << (8 * headerRead);
+			headerRead++;
+		}
+		if (headerRead < HEADER_SIZE) {
+			return false;
+		}
+		if (header < 0 || header > maxFrameSize) {
+			throw new InvalidProtocolBufferNanoException(
+					"Frame length " + (header & 0xFFFFFFFFL) + " exceeds limit " + maxFrameSize);
+		}
+		frameLength = header;
+		header = 0;
+		headerRead = 0;
+		scratchRead = 0;
+		return true;
+	}
+
+	private T readBody(ByteBuffer buffer) throws IOException {
+
+		int remaining = buffer.remaining();
+		if (0 == scratchRead && remaining >= frameLength) {
+			// whole frame available, parse in place when the buffer is heap backed
+			int length = frameLength;
+			frameLength = -1;
+			if (0 == length) {
+				return null;
+			}
+			if (buffer.hasArray()) {
+				int offset = buffer.arrayOffset() + buffer.position();
+				buffer.position(buffer.position() + length);
+				return parse(buffer.array(), offset, length);
+			}
+			ensureScratch(length);
+			buffer.get(scratch, 0, length);
+			return parse(scratch, 0, length);
+		}
+
+		ensureScratch(frameLength);
+		int count = Math.min(remaining, frameLength - scratchRead);
+		buffer.get(scratch, scratchRead, count);
+		scratchRead += count;
+		if (scratchRead < frameLength) {
+			return null;
+		}
+		int length = frameLength;
+		frameLength = -1;
+		scratchRead = 0;
+		return parse(scratch, 0, length);
+	}
+
+	private T parse(byte[] data, int offset, int length) throws IOException {
+		T frame = factory.get();
+		frame.mergeFrom(CodedInputByteBufferNano.newInstance(data, offset, length));
+		return parsed.apply(frame);
+	}
+
+	private void ensureScratch(int length) {
+		if (scratch.length < length) {
+			byte[] bytes = new byte[Math.max(length, Math.min(scratch.length * 2, maxFrameSize))];
+			System.arraycopy(scratch, 0, bytes, 0, scratchRead);
+			scratch = bytes;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.ecarx.asrapi.codec;
+
+import com.google.protobuf.nano.CodedOutputByteBufferNano;
+import com.google.protobuf.nano.MessageNano;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/4
+ * @desc encoder of little-endian length-prefixed nano frames, the counterpart of {@link FrameDecoder}.
+ * Frames are written straight into a buffer of the given factory, which is pooled when the server
+ * provides a pooled factory. Heap buffers are encoded in place, direct buffers through a per-thread
+ * scratch array.
+ */
+public final class FrameEncoder {
+
+	private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[4096]);
+
+	private FrameEncoder() {
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/4
+	 * @desc encode one frame, the caller owns the returned buffer and must release it
+	 */
+	public static DataBuffer encode(MessageNano message, DataBufferFactory factory) {
+
+		int        size   = message.getSerializedSize();
+		int        length = FrameDecoder.HEADER_SIZE + size;
+		DataBuffer buffer = factory.allocateBuffer(length);
+		try {
+			ByteBuffer target = buffer.asByteBuffer(buffer.writePosition(), length).order(ByteOrder.LITTLE_ENDIAN);
+			target.putInt(size);
+			if (target.hasArray()) {
+				write(message, target.array(), target.arrayOffset() + target.position(), size);
+			} else {
+				byte[] scratch = scratch(size);
+				write(message, scratch, 0, size);
+				target.put(scratch, 0, size);
+			}
+			buffer.writePosition(buffer.writePosition() + length);
+			return buffer;
+		} catch (RuntimeException e) {
+			DataBufferUtils.release(buffer);
+			throw e;
+		}
+	}
+
+	private static void write(MessageNano message, byte[] target, int offset, int size) {
+		CodedOutputByteBufferNano output = CodedOutputByteBufferNano.newInstance(target, offset, size);
+		try {
+			message.writeTo(output);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		output.checkNoSpaceLeft();
+	}
+
+	private static byte[] scratch(int size) {
+		byte[] scratch = SCRATCH.get();
+		if (scratch.length < size) {
+			scratch = new byte[Math.max(size, scratch.length * 2)];
+			SCRATCH.set(scratch);
+		}
+		return scratch;
+	}
+}
@@ -0,0 +1,51 @@
+package com.ecarx.asrapi.codec;
+
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.nano.MessageNano;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Supplier;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/13
+ * @desc grpc marshaller of nano messages, the generated grpc stubs need protobuf-java messages which
+ * this project doesn't generate. Message size is limited by the grpc transport.
+ */
+public class NanoMarshaller<T extends MessageNano> implements MethodDescriptor.Marshaller<T> {
+
+	private final Supplier<T> factory;
+
+	public NanoMarshaller(Supplier<T> factory) {
+		this.factory = factory;
+	}
+
+	@Override
+	public InputStream stream(T value) {
+		return new ByteArrayInputStream(MessageNano.toByteArray(value));
+	}
+
+	@Override
+	public T parse(InputStream stream) {
+		try {
+			return MessageNano.mergeFrom(factory.get(), read(stream));
+		} catch (IOException e) {
+			throw Status.INTERNAL.withDescription("Invalid protobuf message").withCause(e).asRuntimeException();
+		}
+	}
+
+	private static byte[] read(InputStream stream) throws IOException {
+		if (stream instanceof KnownLength) {
+			// messages from the transport know their size, read them in one go
+			byte[] bytes = new byte[stream.available()];
+			ByteStreams.readFully(stream, bytes);
+			return bytes;
+		}
+		return ByteStreams.toByteArray(stream);
+	}
+}
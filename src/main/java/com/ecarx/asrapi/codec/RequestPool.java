@@ -0,0 +1,70 @@
+package com.ecarx.asrapi.codec;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/11
+ * @desc bounded pool of up requests of one session. Requests are handed out with a spare ApiData
+ * attached, so parsing a DATA frame reuses both objects, {@link #settle} detaches the spare from
+ * frames which carried none. The post data array is always freshly allocated by nano.
+ * <p>
+ * Ownership: a frame belongs to the decoding thread until it is queued for the upstream, from then
+ * on only the upstream writer may touch it, and it recycles the frame once written. Frames which are
+ * never recycled are simply left to the gc. Thread safe.
+ */
+public class RequestPool {
+
+	private final ArrayBlockingQueue<ASR.APIRequest> requests;
+
+	private final ArrayBlockingQueue<ASR.ApiData> spares;
+
+	public RequestPool(int capacity) {
+		this.requests = new ArrayBlockingQueue<>(capacity);
+		this.spares = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/11
+	 * @desc a cleared request with a spare ApiData to parse into
+	 */
+	public ASR.APIRequest acquire() {
+		ASR.APIRequest request = requests.poll();
+		if (null == request) {
+			request = new ASR.APIRequest();
+		}
+		if (null == request.data) {
+			ASR.ApiData data = spares.poll();
+			request.data = null == data ? new ASR.ApiData() : data;
+		}
+		return request;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/11
+	 * @desc called once the request is parsed, only DATA frames keep their ApiData
+	 */
+	public ASR.APIRequest settle(ASR.APIRequest request) {
+		if (ASR.API_REQ_TYPE_DATA != request.apiReqType && null != request.data) {
+			spares.offer(request.data.clear());
+			request.data = null;
+		}
+		return request;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/11
+	 * @desc give a written request back, the caller must not touch it afterwards
+	 */
+	public void recycle(ASR.APIRequest request) {
+		ASR.ApiData data = request.data;
+		request.clear();
+		request.data = null == data ? null : data.clear();
+		requests.offer(request);
+	}
+}
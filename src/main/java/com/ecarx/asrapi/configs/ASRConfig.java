@@ -4,6 +4,9 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author ITACHY
  * @date 2018/11/3
@@ -17,7 +20,36 @@ public class ASRConfig {
 
 	private String url;
 
-	private Integer threads;
+	// asr backends balanced by latency and load, only url is used when empty
+	private List<String> urls = new ArrayList<>();
 
 	private Integer timeout;
+
+	private Integer maxFrameSize;
+
+	private Integer upHighWater;
+
+	private Long coalesceWindow;
+
+	private Integer coalesceBytes;
+
+	private Integer poolSize;
+
+	private Long keepAlive;
+
+	private Long sessionIdle;
+
+	private Long sessionMaxAge;
+
+	private Long reapInterval;
+
+	// consecutive failures or slow first results which eject a backend
+	private Integer ejectFailures;
+
+	private Long slowResult;
+
+	private Long latencyDecay;
+
+	// active check of ejected backends
+	private Long healthInterval;
 }
@@ -0,0 +1,40 @@
+package com.ecarx.asrapi.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/21
+ * @desc define bulkhead config-param class
+ */
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "executor")
+public class ExecutorConfig {
+
+	public static final String MODE_PLATFORM = "platform";
+
+	public static final String MODE_VIRTUAL = "virtual";
+
+	// platform or virtual threads for blocking work
+	private String mode;
+
+	private Pool upstream = new Pool();
+
+	private Pool nlu = new Pool();
+
+	@Data
+	public static class Pool {
+
+		private Integer threads;
+
+		// platform mode only, virtual threads are never queued
+		private Integer queue;
+
+		// tasks running at once in virtual mode
+		private Integer virtualThreads;
+	}
+}
@@ -0,0 +1,27 @@
+package com.ecarx.asrapi.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/13
+ * @desc define grpc server config-param class
+ */
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "grpc")
+public class GRPCConfig {
+
+	private Boolean enabled;
+
+	// 0 picks a free port
+	private Integer port;
+
+	// pem files, plaintext when not set
+	private String certChain;
+
+	private String privateKey;
+}
@@ -4,6 +4,9 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author ITACHY
  * @date 2018/11/3
@@ -23,4 +26,32 @@ public class NLUConfig {
 
 	private String protocol;
 
+	private Long tokenTtl;
+
+	private Long tokenRefresh;
+
+	private Long tokenCapacity;
+
+	private Integer retryAttempts;
+
+	private Long retryBackoff;
+
+	private Long retryMaxBackoff;
+
+	private Double retryBudget;
+
+	private Integer breakerFailures;
+
+	private Long breakerOpen;
+
+	private Boolean speculative;
+
+	private Long speculativeWindow;
+
+	private Long cacheCapacity;
+
+	private Long cacheTtl;
+
+	private List<String> cacheExcludedDomains = new ArrayList<>();
+
 }
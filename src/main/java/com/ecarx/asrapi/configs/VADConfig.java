@@ -0,0 +1,34 @@
+package com.ecarx.asrapi.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/5
+ * @desc define voice activity detection config-param class, durations are in milliseconds
+ */
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "vad")
+public class VADConfig {
+
+	private Boolean enabled;
+
+	// mean absolute amplitude of a speech frame
+	private Integer energy;
+
+	// zero crossings per sample which mark quiet unvoiced speech
+	private Double zeroCrossing;
+
+	// leading silence kept in front of the first speech frame
+	private Long preRoll;
+
+	// silence forwarded right after speech, longer silence is held back until speech resumes or the utterance ends
+	private Long hangover;
+
+	// trailing silence after which LAST is sent upstream, 0 to wait for the client
+	private Long endpoint;
+}
@@ -0,0 +1,32 @@
+package com.ecarx.asrapi.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/15
+ * @desc define backend connection warm-up config-param class, durations are in milliseconds
+ */
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "warmup")
+public class WarmUpConfig {
+
+	private Boolean enabled;
+
+	// connections opened to each backend before the server starts, http/2 backends multiplex the
+	// probes and keep one connection
+	private Integer connections;
+
+	// longest startup delay, the server starts with whatever is warm by then
+	private Long timeout;
+
+	// idle connections are probed again before the pool keep-alive drops them
+	private Long probeInterval;
+
+	// http/2 ping of idle connections, 0 to disable
+	private Long pingInterval;
+}
@@ -0,0 +1,34 @@
+package com.ecarx.asrapi.configs;
+
+import com.ecarx.asrapi.handler.ASRSocketHandler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
+import org.springframework.web.reactive.socket.server.support.WebSocketHandlerAdapter;
+
+import java.util.Collections;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/14
+ * @desc map the websocket handlers, ahead of the annotated controllers
+ */
+
+@Configuration
+public class WebSocketConfig {
+
+	@Bean
+	public HandlerMapping webSocketMapping(final ASRSocketHandler handler) {
+		SimpleUrlHandlerMapping mapping = new SimpleUrlHandlerMapping();
+		mapping.setUrlMap(Collections.singletonMap(ASRSocketHandler.PATH, handler));
+		mapping.setOrder(Ordered.HIGHEST_PRECEDENCE);
+		return mapping;
+	}
+
+	@Bean
+	public WebSocketHandlerAdapter webSocketHandlerAdapter() {
+		return new WebSocketHandlerAdapter();
+	}
+}
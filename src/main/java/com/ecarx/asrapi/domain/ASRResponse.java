@@ -1,31 +1,43 @@
 package com.ecarx.asrapi.domain;
 
+import com.ecarx.asrapi.codec.FrameDecoder;
+import com.ecarx.asrapi.dto.nano.ASR;
 import okhttp3.MediaType;
 import okhttp3.ResponseBody;
-import okio.Buffer;
 import okio.BufferedSource;
-import okio.ForwardingSource;
-import okio.Okio;
-import okio.Source;
+import reactor.core.publisher.FluxSink;
 
 import java.io.IOException;
-import java.util.function.BiConsumer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author ITACHY
  * @date 2018/11/1
- * @desc customize asr response
+ * @desc customize asr response, decodes the length-prefixed down stream of the asr backend and
+ * pushes every complete frame into the sink. Frames split across reads are kept by the decoder,
+ * whole frames are parsed straight from the read chunk. The body is only read while the sink has
+ * demand, so a slow client slows the backend down instead of queueing responses.
  */
 public class ASRResponse extends ResponseBody {
 
-	private ResponseBody             respBody;
-	private BiConsumer<Buffer, Long> callBack;
+	private static final int CHUNK_SIZE = 8192;
 
-	private BufferedSource buffSource = null;
+	private static final long DEMAND_POLL = TimeUnit.MILLISECONDS.toNanos(100);
 
-	public ASRResponse(ResponseBody body, BiConsumer<Buffer, Long> callBack) {
+	private final ResponseBody respBody;
+
+	private final FluxSink<ASR.APIResponse> responses;
+
+	private final FrameDecoder<ASR.APIResponse> decoder;
+
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+
+	public ASRResponse(ResponseBody body, FluxSink<ASR.APIResponse> responses, int maxFrameSize) {
 		this.respBody = body;
-		this.callBack = callBack;
+		this.responses = responses;
+		this.decoder = new FrameDecoder<>(ASR.APIResponse::new, maxFrameSize);
 	}
 
 	@Override
@@ -40,23 +52,42 @@ public class ASRResponse extends ResponseBody {
 
 	@Override
 	public BufferedSource source() {
-		if (buffSource == null) {
-			buffSource = Okio.buffer(source(respBody.source()));
-		}
-		return buffSource;
+		return respBody.source();
 	}
 
-	private Source source(Source source) {
-		return new ForwardingSource(source) {
-			@Override
-			public long read(Buffer sink, long byteCount) throws IOException {
-				long bytes = super.read(sink, byteCount);
-				if (callBack != null) {
-					callBack.accept(sink, byteCount);
+	@Override
+	public void close() {
+		respBody.close();
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/8
+	 * @desc read the body until it is exhausted or the sink is cancelled, blocks the calling thread
+	 */
+	public void drain() throws IOException {
+
+		Thread reader = Thread.currentThread();
+		responses.onRequest(n -> LockSupport.unpark(reader));
+		BufferedSource source = respBody.source();
+		while (awaitDemand()) {
+			int count = source.read(chunk, 0, chunk.length);
+			if (count < 0) {
+				if (!decoder.isEmpty()) {
+					throw new IOException("ASR down stream ended inside a frame");
 				}
-				return bytes;
+				return;
+			}
+			for (ASR.APIResponse response : decoder.decode(ByteBuffer.wrap(chunk, 0, count))) {
+				responses.next(response);
 			}
-		};
+		}
 	}
 
+	private boolean awaitDemand() {
+		while (0 == responses.requestedFromDownstream() && !responses.isCancelled()) {
+			LockSupport.parkNanos(this, DEMAND_POLL);
+		}
+		return !responses.isCancelled();
+	}
 }
@@ -0,0 +1,187 @@
+package com.ecarx.asrapi.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/22
+ * @desc state shared by the up and down calls of one asr session
+ */
+@Slf4j
+public class ASRSession {
+
+	public static final String ENDPOINT_ASR = "/asr";
+
+	public static final String ENDPOINT_JSON = "/json";
+
+	public static final String ENDPOINT_GRPC = "/grpc";
+
+	public static final String ENDPOINT_WS = "/ws";
+
+	public enum Stage {
+		UP_RECEIVED, UPSTREAM_WRITTEN, DATA_WRITTEN, FIRST_PARTIAL, RESULT, NLU, LAST_FLUSHED
+	}
+
+	public enum State {
+		CREATED, PARAM_RECEIVED, STREAMING, LAST_SENT, RESULT_DELIVERED
+	}
+
+	@Getter
+	private final String id;
+
+	@Getter
+	private final String endpoint;
+
+	@Getter
+	private final long createdAt = System.currentTimeMillis();
+
+	@Getter
+	private volatile long lastActivity = createdAt;
+
+	// latency sensitive clients may opt out of upstream frame coalescing
+	@Getter
+	@Setter
+	private volatile boolean coalesce = true;
+
+	private final AtomicReference<State> state = new AtomicReference<>(State.CREATED);
+
+	// nano time of every stage, 0 until reached
+	private final AtomicLongArray stages = new AtomicLongArray(Stage.values().length);
+
+	private final AtomicInteger calls = new AtomicInteger();
+
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private final MonoProcessor<Void> closeSignal = MonoProcessor.create();
+
+	private final Queue<Runnable> resources = new ConcurrentLinkedQueue<>();
+
+	public ASRSession(String id, String endpoint) {
+		this.id = id;
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/22
+	 * @desc record the first time a stage is reached
+	 */
+	public void mark(Stage stage) {
+		stages.compareAndSet(stage.ordinal(), 0, System.nanoTime());
+	}
+
+	public boolean reached(Stage stage) {
+		return 0 != stages.get(stage.ordinal());
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/16
+	 * @desc nano time the stage was reached, 0 until then
+	 */
+	public long at(Stage stage) {
+		return stages.get(stage.ordinal());
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/22
+	 * @desc nanos from the first up frame to the stage, -1 when either is missing
+	 */
+	public long elapsed(Stage stage) {
+		long start = stages.get(Stage.UP_RECEIVED.ordinal());
+		long end   = stages.get(stage.ordinal());
+		return 0 == start || 0 == end ? -1 : end - start;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/30
+	 * @desc move the session forward, states never go back
+	 */
+	public void advance(State next) {
+		state.accumulateAndGet(next, (current, update) -> update.ordinal() > current.ordinal() ? update : current);
+		touch();
+	}
+
+	public State getState() {
+		return state.get();
+	}
+
+	public void touch() {
+		lastActivity = System.currentTimeMillis();
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/30
+	 * @desc run the action when the session is closed, at once when it is closed already
+	 */
+	public void onClose(Runnable resource) {
+		resources.add(resource);
+		if (closed.get()) {
+			releaseResources();
+		}
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/30
+	 * @desc completes when the session is closed
+	 */
+	public Mono<Void> closed() {
+		return closeSignal;
+	}
+
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/30
+	 * @desc release every resource of the session, true for the first call only
+	 */
+	public boolean close() {
+		if (!closed.compareAndSet(false, true)) {
+			return false;
+		}
+		closeSignal.onComplete();
+		releaseResources();
+		return true;
+	}
+
+	public int retain() {
+		return calls.incrementAndGet();
+	}
+
+	public int release() {
+		return calls.decrementAndGet();
+	}
+
+	public int getCalls() {
+		return calls.get();
+	}
+
+	private void releaseResources() {
+		Runnable resource;
+		while (null != (resource = resources.poll())) {
+			try {
+				resource.run();
+			} catch (Exception e) {
+				log.error("Release session {} resource failed, error msg: ", id, e);
+			}
+		}
+	}
+}
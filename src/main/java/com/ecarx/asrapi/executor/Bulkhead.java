@@ -0,0 +1,42 @@
+package com.ecarx.asrapi.executor;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/21
+ * @desc executor isolating one kind of blocking work, tasks beyond its capacity are rejected with
+ * RejectedExecutionException instead of piling up
+ */
+public interface Bulkhead extends ExecutorService {
+
+	String getName();
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/12
+	 * @desc number of tasks running at once
+	 */
+	int getThreads();
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/12
+	 * @desc number of tasks callers may have in flight, running or queued
+	 */
+	int getLimit();
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/12
+	 * @desc threads the bulkhead currently holds
+	 */
+	int getPoolSize();
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/12
+	 * @desc most threads the bulkhead ever held at once
+	 */
+	int getLargestPoolSize();
+}
@@ -0,0 +1,106 @@
+package com.ecarx.asrapi.executor;
+
+import com.ecarx.asrapi.configs.ExecutorConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/21
+ * @desc the only place threads are created, upstream I/O and NLU calls are isolated in separate bulkheads
+ */
+@Slf4j
+@Service
+public class ExecutionService implements DisposableBean {
+
+	// warm-up and health probes are few and short
+	private static final int PROBE_THREADS = 4;
+
+	private final Bulkhead upstream;
+
+	private final Bulkhead nlu;
+
+	private final Bulkhead probes;
+
+	private final ScheduledThreadPoolExecutor scheduler;
+
+	public ExecutionService(final ExecutorConfig config, final MeterRegistry registry) {
+
+		boolean virtual = ExecutorConfig.MODE_VIRTUAL.equals(config.getMode());
+		if (virtual && !VirtualThreads.isSupported()) {
+			log.warn("Virtual threads need java 21, running on {}, fall back to platform threads",
+					System.getProperty("java.version"));
+			virtual = false;
+		}
+		this.upstream = bulkhead("upstream", config.getUpstream(), virtual, registry);
+		this.nlu = bulkhead("nlu", config.getNlu(), virtual, registry);
+		this.probes = new PooledBulkhead("probes", PROBE_THREADS, 0, registry);
+		this.scheduler = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("housekeeping-"));
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/12
+	 * @desc platform threads are pooled, a virtual thread is started per task up to the virtual limit
+	 * and ends with it, blocking in them costs no platform thread
+	 */
+	private static Bulkhead bulkhead(String name, ExecutorConfig.Pool pool, boolean virtual, MeterRegistry registry) {
+		if (!virtual) {
+			return new PooledBulkhead(name, pool.getThreads(), pool.getQueue(), registry);
+		}
+		log.info("Run {} bulkhead on up to {} virtual threads", name, pool.getVirtualThreads());
+		return new VirtualBulkhead(name, pool.getVirtualThreads(), VirtualThreads.factory(name + "-virtual-"),
+				registry);
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/21
+	 * @desc runs blocking upstream asr streams
+	 */
+	public Bulkhead upstream() {
+		return upstream;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/21
+	 * @desc runs NLU http exchanges, it is owned by the NLU dispatcher
+	 */
+	public Bulkhead nlu() {
+		return nlu;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/15
+	 * @desc runs connection probes, kept apart so probes never take the room of sessions
+	 */
+	public Bulkhead probes() {
+		return probes;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/30
+	 * @desc single thread for periodic housekeeping, tasks must be short
+	 */
+	public ScheduledExecutorService scheduler() {
+		return scheduler;
+	}
+
+	@Override
+	public void destroy() {
+		log.info("Shutdown bulkheads");
+		upstream.shutdownNow();
+		nlu.shutdownNow();
+		probes.shutdownNow();
+		scheduler.shutdownNow();
+	}
+}
@@ -0,0 +1,79 @@
+package com.ecarx.asrapi.executor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/21
+ * @desc bulkhead of pooled platform threads with a bounded queue, tasks are rejected with
+ * RejectedExecutionException once both are full. Queue depth, active count, queue-wait and rejections are published as metrics.
+ * Callers should admit at most {@link #getLimit()} tasks, the extra threads of queue capacity absorb
+ * hand-offs from tasks which are finishing. Long running tasks should be admitted only up to the
+ * thread count with a queue of 0.
+ */
+@Slf4j
+public class PooledBulkhead extends ThreadPoolExecutor implements Bulkhead {
+
+	private final String name;
+
+	private final Timer queueWait;
+
+	private final Counter rejected;
+
+	private final int limit;
+
+	public PooledBulkhead(String name, int threads, int queue, MeterRegistry registry) {
+
+		super(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue + threads),
+				new CustomizableThreadFactory(name + "-"));
+		allowCoreThreadTimeOut(true);
+
+		this.name = name;
+		this.limit = threads + queue;
+		this.queueWait = Timer.builder("executor.queue.wait").tag("name", name).register(registry);
+		this.rejected = Counter.builder("executor.rejected").tag("name", name).register(registry);
+		Gauge.builder("executor.queued", this, pool -> pool.getQueue().size()).tag("name", name).register(registry);
+		Gauge.builder("executor.active", this, ThreadPoolExecutor::getActiveCount).tag("name", name).register(registry);
+		Gauge.builder("executor.pool.size", this, ThreadPoolExecutor::getPoolSize).tag("name", name).register(registry);
+
+		setRejectedExecutionHandler((task, executor) -> {
+			rejected.increment();
+			throw new RejectedExecutionException(name + " bulkhead saturated, active: " + getActiveCount()
+					+ ", queued: " + getQueue().size());
+		});
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		long enqueued = System.nanoTime();
+		super.execute(() -> {
+			queueWait.record(System.nanoTime() - enqueued, TimeUnit.NANOSECONDS);
+			command.run();
+		});
+	}
+
+	@Override
+	public int getThreads() {
+		return getMaximumPoolSize();
+	}
+
+	@Override
+	public int getLimit() {
+		return limit;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+}
@@ -0,0 +1,151 @@
+package com.ecarx.asrapi.executor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/12
+ * @desc bulkhead starting a new virtual thread per task, nothing is pooled or queued. A semaphore
+ * bounds the tasks running at once, tasks beyond it are rejected with RejectedExecutionException.
+ * A task waits up to HANDOFF_MILLIS for a permit first: OkHttp's dispatcher submits the next call
+ * from inside the call that just finished, which still holds its permit at that point.
+ * Running tasks and rejections are published as metrics.
+ */
+public class VirtualBulkhead extends AbstractExecutorService implements Bulkhead {
+
+	// a finishing task returns its permit within microseconds, a saturated bulkhead is not waited for
+	static final long HANDOFF_MILLIS = 50;
+
+	private final String name;
+
+	private final int threads;
+
+	private final Semaphore permits;
+
+	private final ThreadFactory threadFactory;
+
+	private final Counter rejected;
+
+	private final Set<Thread> running = ConcurrentHashMap.newKeySet();
+
+	private final AtomicInteger largest = new AtomicInteger();
+
+	private volatile boolean shutdown;
+
+	public VirtualBulkhead(String name, int threads, ThreadFactory threadFactory, MeterRegistry registry) {
+
+		this.name = name;
+		this.threads = threads;
+		this.permits = new Semaphore(threads);
+		this.threadFactory = threadFactory;
+		this.rejected = Counter.builder("executor.rejected").tag("name", name).register(registry);
+		Gauge.builder("executor.active", running, Set::size).tag("name", name).register(registry);
+		Gauge.builder("executor.pool.size", running, Set::size).tag("name", name).register(registry);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (shutdown || !acquire()) {
+			rejected.increment();
+			throw new RejectedExecutionException(name + " bulkhead saturated, running: " + running.size());
+		}
+		Thread thread;
+		try {
+			thread = threadFactory.newThread(() -> {
+				try {
+					command.run();
+				} finally {
+					running.remove(Thread.currentThread());
+					permits.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+		running.add(thread);
+		largest.accumulateAndGet(running.size(), Math::max);
+		thread.start();
+	}
+
+	private boolean acquire() {
+		try {
+			return permits.tryAcquire() || permits.tryAcquire(HANDOFF_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown = true;
+		running.forEach(Thread::interrupt);
+		return Collections.emptyList();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return shutdown && running.isEmpty();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!isTerminated()) {
+			if (System.nanoTime() >= deadline) {
+				return false;
+			}
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		return true;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getThreads() {
+		return threads;
+	}
+
+	@Override
+	public int getLimit() {
+		return threads;
+	}
+
+	@Override
+	public int getPoolSize() {
+		return running.size();
+	}
+
+	@Override
+	public int getLargestPoolSize() {
+		return largest.get();
+	}
+}
@@ -0,0 +1,56 @@
+package com.ecarx.asrapi.executor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/12
+ * @desc factory of virtual threads, looked up reflectively so the project still builds for java 8
+ * and only uses them when running on java 21 or later
+ */
+public final class VirtualThreads {
+
+	private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/12
+	 * @desc true when the running jvm provides virtual threads
+	 */
+	public static boolean isSupported() {
+		return null != OF_VIRTUAL;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/12
+	 * @desc factory of virtual threads named prefix + counter
+	 */
+	public static ThreadFactory factory(String prefix) {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Virtual threads need java 21, running on "
+					+ System.getProperty("java.version"));
+		}
+		try {
+			// Thread.ofVirtual().name(prefix, 0).factory(), through the public builder interfaces
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			Object   virtual = OF_VIRTUAL.invoke(null);
+			virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, prefix, 0L);
+			return (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Create virtual thread factory failed", e);
+		}
+	}
+
+	private static Method method(Class<?> type, String name) {
+		try {
+			return type.getMethod(name);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
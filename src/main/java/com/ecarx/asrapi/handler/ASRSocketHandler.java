@@ -0,0 +1,116 @@
+package com.ecarx.asrapi.handler;
+
+import com.ecarx.asrapi.codec.FrameDecoder;
+import com.ecarx.asrapi.codec.FrameEncoder;
+import com.ecarx.asrapi.configs.ASRConfig;
+import com.ecarx.asrapi.domain.ASRSession;
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.ecarx.asrapi.service.ASRService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/14
+ * @desc full duplex asr over one websocket, binary messages carry the same length-prefixed frames as
+ * /asr/up and /asr/down, frames may be split across messages. A socket carries utterances one after
+ * another, each one ends with its LAST request and runs as session id-1, id-2, ... where id is the
+ * query parameter of the handshake, NLU tokens are kept per id. Frames of the next utterance wait until
+ * the previous one is done.
+ */
+@Slf4j
+@Component
+public class ASRSocketHandler implements WebSocketHandler {
+
+	public static final String PATH = "/ws/asr";
+
+	private static final CloseStatus SATURATED = new CloseStatus(1013, "ASR upstream saturated");
+
+	private final ASRService asrService;
+
+	private final ASRConfig config;
+
+	public ASRSocketHandler(final ASRService asrService, final ASRConfig config) {
+
+		this.asrService = asrService;
+		this.config = config;
+	}
+
+	@Override
+	public Mono<Void> handle(WebSocketSession socket) {
+
+		MultiValueMap<String, String> params   = UriComponentsBuilder.fromUri(socket.getHandshakeInfo().getUri())
+				.build().getQueryParams();
+		String                        device   = params.containsKey("id") ? params.getFirst("id") : socket.getId();
+		boolean                       coalesce = !"false".equalsIgnoreCase(params.getFirst("coalesce"));
+		FrameDecoder<ASR.APIRequest>  decoder  = new FrameDecoder<>(ASR.APIRequest::new, config.getMaxFrameSize());
+		AtomicInteger                 count    = new AtomicInteger();
+
+		Flux<WebSocketMessage> responses = socket.receive()
+				.filter(message -> WebSocketMessage.Type.BINARY == message.getType())
+				.concatMapIterable(message -> decode(decoder, message))
+				.windowUntil(request -> ASR.API_REQ_TYPE_LAST == request.apiReqType)
+				.concatMap(requests -> utterance(device + "-" + count.incrementAndGet(), device, coalesce, requests))
+				.map(response -> socket.binaryMessage(factory -> FrameEncoder.encode(response, factory)));
+
+		return socket.send(responses)
+				.onErrorResume(e -> {
+					log.error("ASR socket of {} failed, error msg: ", device, e);
+					return socket.close(closeStatus(e));
+				});
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/14
+	 * @desc run the up and down side of one utterance, responses are emitted until LAST
+	 */
+	private Flux<ASR.APIResponse> utterance(String id, String device, boolean coalesce,
+			Flux<ASR.APIRequest> requests) {
+		return Flux.create(sink -> {
+			Disposable.Composite sides = Disposables.composite();
+			sink.onDispose(sides);
+			sides.add(asrService.handleASRUp(id, ASRSession.ENDPOINT_WS, coalesce, requests)
+					.subscribe(null, sink::error));
+			sides.add(asrService.handleASRDown(id, device, ASRSession.ENDPOINT_WS,
+					responze -> responze.doOnNext(sink::next).then())
+					.subscribe(null, sink::error, sink::complete));
+		});
+	}
+
+	private static List<ASR.APIRequest> decode(FrameDecoder<ASR.APIRequest> decoder, WebSocketMessage message) {
+		try {
+			return decoder.decode(message.getPayload());
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		} finally {
+			DataBufferUtils.release(message.getPayload());
+		}
+	}
+
+	private static CloseStatus closeStatus(Throwable error) {
+		if (error instanceof ResponseStatusException
+				&& HttpStatus.SERVICE_UNAVAILABLE == ((ResponseStatusException) error).getStatus()) {
+			return SATURATED;
+		}
+		return CloseStatus.SERVER_ERROR;
+	}
+}
@@ -0,0 +1,258 @@
+package com.ecarx.asrapi.handler;
+
+import com.ecarx.asrapi.codec.NanoMarshaller;
+import com.ecarx.asrapi.domain.ASRSession;
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.ecarx.asrapi.service.ASRService;
+import io.grpc.BindableService;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Subscription;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/13
+ * @desc grpc bidi streaming of one asr session, requests are read from and responses are written to
+ * the same stream. Session id and coalescing are taken from the asr-id and asr-coalesce headers, a
+ * random id is used when there is none. Both directions are flow controlled by the grpc transport.
+ */
+@Slf4j
+@Component
+public class GRPCHandler implements BindableService {
+
+	public static final String SERVICE = "com.ecarx.asrapi.dto.Recognizer";
+
+	public static final MethodDescriptor<ASR.APIRequest, ASR.APIResponse> RECOGNIZE = MethodDescriptor
+			.<ASR.APIRequest, ASR.APIResponse>newBuilder()
+			.setType(MethodDescriptor.MethodType.BIDI_STREAMING)
+			.setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE, "Recognize"))
+			.setRequestMarshaller(new NanoMarshaller<>(ASR.APIRequest::new))
+			.setResponseMarshaller(new NanoMarshaller<>(ASR.APIResponse::new))
+			.build();
+
+	public static final Metadata.Key<String> ID = Metadata.Key.of("asr-id", Metadata.ASCII_STRING_MARSHALLER);
+
+	public static final Metadata.Key<String> COALESCE = Metadata.Key.of("asr-coalesce",
+			Metadata.ASCII_STRING_MARSHALLER);
+
+	private static final Context.Key<Metadata> HEADERS = Context.key("asr-headers");
+
+	private static final int MAX_REQUEST = 1024;
+
+	private final ASRService asrService;
+
+	public GRPCHandler(final ASRService asrService) {
+
+		this.asrService = asrService;
+	}
+
+	@Override
+	public ServerServiceDefinition bindService() {
+		ServerServiceDefinition definition = ServerServiceDefinition.builder(SERVICE)
+				.addMethod(RECOGNIZE, ServerCalls.asyncBidiStreamingCall(this::recognize))
+				.build();
+		return ServerInterceptors.intercept(definition, new ServerInterceptor() {
+			@Override
+			public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call, Metadata headers,
+					ServerCallHandler<Q, R> next) {
+				return Contexts.interceptCall(Context.current().withValue(HEADERS, headers), call, headers, next);
+			}
+		});
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/13
+	 * @desc start the up and down side of a session on one stream, the stream completes after LAST
+	 */
+	private StreamObserver<ASR.APIRequest> recognize(StreamObserver<ASR.APIResponse> observer) {
+
+		Metadata   headers  = HEADERS.get();
+		String     id       = headers.containsKey(ID) ? headers.get(ID) : UUID.randomUUID().toString();
+		boolean    coalesce = !"false".equalsIgnoreCase(headers.get(COALESCE));
+		GRPCStream stream   = new GRPCStream((ServerCallStreamObserver<ASR.APIResponse>) observer);
+
+		stream.add(asrService.handleASRUp(id, ASRSession.ENDPOINT_GRPC, coalesce, stream.requests())
+				.subscribe(null, stream::finish));
+		stream.add(asrService.handleASRDown(id, ASRSession.ENDPOINT_GRPC, stream::write)
+				.subscribe(null, stream::finish, () -> stream.finish(null)));
+		return stream;
+	}
+
+	private static Status status(Throwable error) {
+		if (error instanceof ResponseStatusException
+				&& HttpStatus.SERVICE_UNAVAILABLE == ((ResponseStatusException) error).getStatus()) {
+			return Status.UNAVAILABLE.withDescription(((ResponseStatusException) error).getReason());
+		}
+		return Status.fromThrowable(error).withDescription(error.getMessage());
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/13
+	 * @desc one grpc call, requests are read only on demand of the up side, responses are written
+	 * only while the transport is ready
+	 */
+	private static class GRPCStream implements StreamObserver<ASR.APIRequest> {
+
+		private final ServerCallStreamObserver<ASR.APIResponse> call;
+
+		private final Disposable.Composite sides = Disposables.composite();
+
+		private final AtomicBoolean waiting = new AtomicBoolean();
+
+		private volatile FluxSink<ASR.APIRequest> sink;
+
+		private volatile BaseSubscriber<ASR.APIResponse> writer;
+
+		private volatile boolean unbounded;
+
+		private boolean closed;
+
+		GRPCStream(ServerCallStreamObserver<ASR.APIResponse> call) {
+			this.call = call;
+			call.disableAutoInboundFlowControl();
+			call.setOnReadyHandler(this::onReady);
+			call.setOnCancelHandler(sides::dispose);
+		}
+
+		void add(Disposable side) {
+			sides.add(side);
+		}
+
+		Flux<ASR.APIRequest> requests() {
+			return Flux.create(sink -> {
+				this.sink = sink;
+				sink.onRequest(this::request);
+				// the subscriber asks before the request consumer is registered, pass that on too
+				request(sink.requestedFromDownstream());
+			});
+		}
+
+		private void request(long n) {
+			if (Long.MAX_VALUE == n) {
+				// transports count requested messages in an int, unbounded demand takes one at a time
+				unbounded = true;
+				call.request(1);
+			} else if (n > 0) {
+				call.request((int) Math.min(n, MAX_REQUEST));
+			}
+		}
+
+		Mono<Void> write(Flux<ASR.APIResponse> responses) {
+			return Mono.create(done -> {
+				BaseSubscriber<ASR.APIResponse> subscriber = new BaseSubscriber<ASR.APIResponse>() {
+
+					@Override
+					protected void hookOnSubscribe(Subscription subscription) {
+						subscription.request(1);
+					}
+
+					@Override
+					protected void hookOnNext(ASR.APIResponse response) {
+						send(response);
+						if (call.isReady()) {
+							request(1);
+							return;
+						}
+						// the ready handler requests the next response, unless it ran in between
+						waiting.set(true);
+						if (call.isReady() && waiting.compareAndSet(true, false)) {
+							request(1);
+						}
+					}
+
+					@Override
+					protected void hookOnComplete() {
+						done.success();
+					}
+
+					@Override
+					protected void hookOnError(Throwable throwable) {
+						done.error(throwable);
+					}
+				};
+				writer = subscriber;
+				done.onDispose(subscriber);
+				responses.subscribe(subscriber);
+			});
+		}
+
+		@Override
+		public void onNext(ASR.APIRequest request) {
+			sink.next(request);
+			if (unbounded) {
+				call.request(1);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			sink.error(throwable);
+		}
+
+		@Override
+		public void onCompleted() {
+			sink.complete();
+		}
+
+		private void onReady() {
+			BaseSubscriber<ASR.APIResponse> subscriber = writer;
+			if (null != subscriber && waiting.compareAndSet(true, false)) {
+				subscriber.request(1);
+			}
+		}
+
+		private synchronized void send(ASR.APIResponse response) {
+			if (!closed && !call.isCancelled()) {
+				call.onNext(response);
+			}
+		}
+
+		/**
+		 * @author ITACHY
+		 * @date 2018/12/13
+		 * @desc close the stream once, the side still running is disposed
+		 */
+		private synchronized void finish(Throwable error) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			sides.dispose();
+			if (call.isCancelled()) {
+				return;
+			}
+			if (null == error) {
+				call.onCompleted();
+			} else {
+				log.error("gRPC stream failed, error msg: ", error);
+				call.onError(status(error).asRuntimeException());
+			}
+		}
+	}
+}
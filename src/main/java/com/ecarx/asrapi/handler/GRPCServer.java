@@ -0,0 +1,67 @@
+package com.ecarx.asrapi.handler;
+
+import com.ecarx.asrapi.configs.ASRConfig;
+import com.ecarx.asrapi.configs.GRPCConfig;
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/13
+ * @desc grpc server next to the http one. Calls run on the transport threads, the handler never
+ * blocks them.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "grpc", name = "enabled", havingValue = "true")
+public class GRPCServer implements InitializingBean, DisposableBean {
+
+	private final GRPCConfig config;
+
+	private final ASRConfig asrConfig;
+
+	private final GRPCHandler handler;
+
+	private Server server;
+
+	public GRPCServer(final GRPCConfig config, final ASRConfig asrConfig, final GRPCHandler handler) {
+
+		this.config = config;
+		this.asrConfig = asrConfig;
+		this.handler = handler;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws IOException {
+		NettyServerBuilder builder = NettyServerBuilder.forPort(config.getPort())
+				.addService(handler)
+				.directExecutor()
+				.maxInboundMessageSize(asrConfig.getMaxFrameSize());
+		if (null != config.getCertChain()) {
+			builder.useTransportSecurity(new File(config.getCertChain()), new File(config.getPrivateKey()));
+		}
+		server = builder.build().start();
+		log.info("gRPC server started on port {}", server.getPort());
+	}
+
+	public int getPort() {
+		return server.getPort();
+	}
+
+	@Override
+	public void destroy() throws InterruptedException {
+		server.shutdown();
+		if (!server.awaitTermination(5, TimeUnit.SECONDS)) {
+			server.shutdownNow();
+		}
+	}
+}
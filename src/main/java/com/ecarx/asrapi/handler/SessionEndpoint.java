@@ -0,0 +1,52 @@
+package com.ecarx.asrapi.handler;
+
+import com.ecarx.asrapi.domain.ASRSession;
+import com.ecarx.asrapi.service.SessionRegistry;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/30
+ * @desc admin view of live sessions, served at /actuator/sessions of the internal management port
+ */
+@Component
+@Endpoint(id = "sessions")
+public class SessionEndpoint {
+
+	private final SessionRegistry sessions;
+
+	public SessionEndpoint(final SessionRegistry sessions) {
+		this.sessions = sessions;
+	}
+
+	@ReadOperation
+	public List<Map<String, Object>> sessions() {
+		long                      now    = System.currentTimeMillis();
+		List<Map<String, Object>> result = new ArrayList<>();
+		for (ASRSession session : sessions.sessions()) {
+			Map<String, Object> view = new LinkedHashMap<>();
+			view.put("id", session.getId());
+			view.put("endpoint", session.getEndpoint());
+			view.put("state", session.getState());
+			view.put("calls", session.getCalls());
+			view.put("age", now - session.getCreatedAt());
+			view.put("idle", now - session.getLastActivity());
+			result.add(view);
+		}
+		return result;
+	}
+
+	@DeleteOperation
+	public boolean close(@Selector String id) {
+		return sessions.close(id);
+	}
+}
@@ -0,0 +1,38 @@
+package com.ecarx.asrapi.handler;
+
+import com.ecarx.asrapi.service.HttpService;
+import com.ecarx.asrapi.service.NLUService;
+import com.ecarx.asrapi.service.WarmUpService;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/15
+ * @desc down until the backend connections are warmed up, pooled connections per backend as details
+ */
+@Component
+public class WarmUpHealthIndicator extends AbstractHealthIndicator {
+
+	private final WarmUpService warmUpService;
+
+	private final HttpService httpService;
+
+	private final NLUService nluService;
+
+	public WarmUpHealthIndicator(final WarmUpService warmUpService, final HttpService httpService,
+			final NLUService nluService) {
+
+		this.warmUpService = warmUpService;
+		this.httpService = httpService;
+		this.nluService = nluService;
+	}
+
+	@Override
+	protected void doHealthCheck(Health.Builder builder) {
+		(warmUpService.isWarm() ? builder.up() : builder.down())
+				.withDetail("asr", httpService.connectionCount())
+				.withDetail("nlu", nluService.connectionCount());
+	}
+}
@@ -0,0 +1,94 @@
+package com.ecarx.asrapi.resilience;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/26
+ * @desc opens after consecutive failures, after the open duration a single trial call is let
+ * through, its result closes or re-opens the breaker
+ */
+@Slf4j
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, HALF_OPEN, OPEN
+	}
+
+	private final String name;
+
+	private final int failureThreshold;
+
+	private final long openMillis;
+
+	private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+	private final AtomicInteger failures = new AtomicInteger();
+
+	private final AtomicLong openedAt = new AtomicLong();
+
+	public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/26
+	 * @desc false when the call must fail fast
+	 */
+	public boolean allowRequest() {
+		switch (state.get()) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.currentTimeMillis() - openedAt.get() >= openMillis
+					&& state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+				log.info("Circuit {} half open, try one call", name);
+				return true;
+			}
+			return false;
+		default:
+			// a trial call is already running
+			return false;
+		}
+	}
+
+	public void onSuccess() {
+		failures.set(0);
+		if (State.CLOSED != state.getAndSet(State.CLOSED)) {
+			log.info("Circuit {} closed", name);
+		}
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/26
+	 * @desc the trial call was cancelled before it had a result, open again so the next trial
+	 * can run after the open duration
+	 */
+	public void onCancel() {
+		if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+			openedAt.set(System.currentTimeMillis());
+			log.info("Circuit {} trial cancelled, open for {} ms", name, openMillis);
+		}
+	}
+
+	public void onFailure() {
+		if (State.HALF_OPEN == state.get() || failures.incrementAndGet() >= failureThreshold) {
+			openedAt.set(System.currentTimeMillis());
+			if (State.OPEN != state.getAndSet(State.OPEN)) {
+				log.warn("Circuit {} open for {} ms", name, openMillis);
+			}
+		}
+	}
+
+	public State getState() {
+		return state.get();
+	}
+}
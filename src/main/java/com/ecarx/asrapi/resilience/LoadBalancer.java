@@ -0,0 +1,250 @@
+package com.ecarx.asrapi.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/16
+ * @desc power of two choices over the backends which are not ejected, the one with the lower
+ * latency EWMA weighted by its in-flight calls wins. Every call of a key goes to the backend picked
+ * first until the key is unpinned. Consecutive failures or slow results eject a backend, only an
+ * active check brings it back, a backend ejected for slow results must answer a latency probe in
+ * time. With every backend ejected all of them are used again. The latency EWMA fades while a backend
+ * gets no samples, so one which was slow once gets traffic again and is measured anew.
+ */
+@Slf4j
+public class LoadBalancer {
+
+	private final String name;
+
+	@Getter
+	private final List<Backend> backends;
+
+	private final ConcurrentMap<String, Backend> pinned = new ConcurrentHashMap<>();
+
+	private final int ejectFailures;
+
+	private final long slowNanos;
+
+	private final long decayNanos;
+
+	private final Counter ejections;
+
+	public LoadBalancer(String name, List<String> urls, int ejectFailures, long slowMillis, long decayMillis,
+			MeterRegistry registry) {
+
+		if (urls.isEmpty()) {
+			throw new IllegalArgumentException("No backend of " + name);
+		}
+		this.name = name;
+		this.ejectFailures = ejectFailures;
+		this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+		this.decayNanos = TimeUnit.MILLISECONDS.toNanos(decayMillis);
+		this.ejections = registry.counter(name + ".backend.ejections");
+
+		List<Backend> list = new ArrayList<>(urls.size());
+		for (String url : urls) {
+			Backend backend = new Backend(url, decayNanos);
+			list.add(backend);
+			Gauge.builder(name + ".backend.inflight", backend, Backend::getInFlight)
+					.tag("backend", url).register(registry);
+			Gauge.builder(name + ".backend.latency", backend, Backend::getLatency)
+					.description("EWMA of the first result latency in ms")
+					.tag("backend", url).register(registry);
+			Gauge.builder(name + ".backend.ejected", backend, b -> b.isEjected() ? 1 : 0)
+					.tag("backend", url).register(registry);
+		}
+		this.backends = Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/16
+	 * @desc backend of the key, picked on first use
+	 */
+	public Backend select(String key) {
+		Backend backend = pinned.get(key);
+		if (null != backend) {
+			return backend;
+		}
+		Backend picked = pick();
+		backend = pinned.putIfAbsent(key, picked);
+		return null == backend ? picked : backend;
+	}
+
+	public void unpin(String key) {
+		pinned.remove(key);
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/16
+	 * @desc the cheaper of two random backends
+	 */
+	public Backend pick() {
+		List<Backend> candidates = new ArrayList<>(backends.size());
+		for (Backend backend : backends) {
+			if (!backend.isEjected()) {
+				candidates.add(backend);
+			}
+		}
+		if (candidates.isEmpty()) {
+			candidates = backends;
+		}
+		int size = candidates.size();
+		if (1 == size) {
+			return candidates.get(0);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int               first  = random.nextInt(size);
+		int               second = random.nextInt(size - 1);
+		if (second >= first) {
+			second++;
+		}
+		Backend one   = candidates.get(first);
+		Backend other = candidates.get(second);
+		return one.cost() <= other.cost() ? one : other;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/16
+	 * @desc latency until the first result of a call, slow results count as failure
+	 */
+	public void onLatency(Backend backend, long nanos) {
+		backend.sample(nanos);
+		if (nanos > slowNanos) {
+			onFailure(backend, true);
+		} else {
+			backend.failures.set(0);
+		}
+	}
+
+	public void onFailure(Backend backend) {
+		onFailure(backend, false);
+	}
+
+	private void onFailure(Backend backend, boolean slow) {
+		if (backend.failures.incrementAndGet() >= ejectFailures && !backend.ejected) {
+			backend.slow = slow;
+			backend.ejected = true;
+			ejections.increment();
+			log.warn("Eject {} backend {} after {} {}", name, backend.url, ejectFailures,
+					slow ? "slow results" : "failures");
+		}
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/16
+	 * @desc probe every ejected backend, the ones which pass are used again. Backends ejected for
+	 * slow results are probed for latency, a healthy answer does not tell they are fast again
+	 */
+	public void check(Function<Backend, Mono<Boolean>> health, Function<Backend, Mono<Long>> latency) {
+		for (Backend backend : backends) {
+			if (!backend.ejected) {
+				continue;
+			}
+			Mono<Boolean> probe = !backend.slow ? health.apply(backend) : latency.apply(backend).map(nanos -> {
+				backend.sample(nanos);
+				return nanos <= slowNanos;
+			});
+			probe.subscribe(passed -> {
+				if (passed) {
+					backend.failures.set(0);
+					backend.ejected = false;
+					log.info("Bring back {} backend {}", name, backend.url);
+				}
+			}, e -> log.debug("Check {} backend {} failed: {}", name, backend.url, e.toString()));
+		}
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/16
+	 * @desc one backend endpoint, latency is kept in milliseconds
+	 */
+	public static class Backend {
+
+		@Getter
+		private final String url;
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		private final AtomicInteger failures = new AtomicInteger();
+
+		private final long decayNanos;
+
+		@Getter
+		private volatile boolean ejected;
+
+		// ejected for slow results rather than failures
+		private volatile boolean slow;
+
+		@Getter
+		private volatile double latency;
+
+		private volatile long sampledAt;
+
+		Backend(String url, long decayNanos) {
+			this.url = url;
+			this.decayNanos = decayNanos;
+		}
+
+		public void start() {
+			inFlight.incrementAndGet();
+		}
+
+		public void finish() {
+			inFlight.decrementAndGet();
+		}
+
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		/**
+		 * @author ITACHY
+		 * @date 2018/12/16
+		 * @desc expected latency of one more call, unmeasured backends are judged by their load only.
+		 * The latency fades with the time since the last sample
+		 */
+		double cost() {
+			long   sampled = sampledAt;
+			double faded   = 0 == sampled ? 0 : latency * weight(System.nanoTime() - sampled);
+			return (faded + 1) * (inFlight.get() + 1);
+		}
+
+		private synchronized void sample(long nanos) {
+			long   now    = System.nanoTime();
+			double millis = nanos / 1e6;
+			if (0 == sampledAt) {
+				latency = millis;
+			} else {
+				// older samples weigh less the longer ago they were taken
+				double weight = weight(now - sampledAt);
+				latency = latency * weight + millis * (1 - weight);
+			}
+			sampledAt = now;
+		}
+
+		private double weight(long age) {
+			return Math.exp(-(double) age / decayNanos);
+		}
+	}
+}
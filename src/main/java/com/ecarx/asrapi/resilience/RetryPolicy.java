@@ -0,0 +1,77 @@
+package com.ecarx.asrapi.resilience;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/26
+ * @desc bounded attempts with full jitter exponential backoff. Retries also draw from a budget
+ * shared by all calls, every call deposits a fraction of a retry, so retries stay a bounded
+ * share of the traffic during an outage.
+ */
+public class RetryPolicy {
+
+	// one retry, budget is kept in thousandths of a retry
+	private static final long RETRY_COST = 1000;
+
+	private final int maxAttempts;
+
+	private final long backoffMillis;
+
+	private final long maxBackoffMillis;
+
+	private final long deposit;
+
+	private final long maxBalance;
+
+	private final AtomicLong balance;
+
+	public RetryPolicy(int maxAttempts, long backoffMillis, long maxBackoffMillis, double budgetRatio) {
+		this.maxAttempts = maxAttempts;
+		this.backoffMillis = backoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+		this.deposit = (long) (budgetRatio * RETRY_COST);
+		// allow a small burst of retries after idle periods
+		this.maxBalance = 10 * RETRY_COST;
+		this.balance = new AtomicLong(maxBalance);
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/26
+	 * @desc called once per call, before its first attempt
+	 */
+	public void onCall() {
+		balance.accumulateAndGet(deposit, (current, delta) -> Math.min(maxBalance, current + delta));
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/26
+	 * @desc true when another attempt is allowed after the given number of attempts
+	 */
+	public boolean tryRetry(int attempts) {
+		if (attempts >= maxAttempts) {
+			return false;
+		}
+		long current;
+		do {
+			current = balance.get();
+			if (current < RETRY_COST) {
+				return false;
+			}
+		} while (!balance.compareAndSet(current, current - RETRY_COST));
+		return true;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/26
+	 * @desc random delay before the next attempt
+	 */
+	public long backoff(int attempts) {
+		long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempts - 1, 20));
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+}
@@ -0,0 +1,343 @@
+package com.ecarx.asrapi.service;
+
+import com.ecarx.asrapi.audio.SilenceFilter;
+import com.ecarx.asrapi.audio.VoiceActivityDetector;
+import com.ecarx.asrapi.codec.FrameDecoder;
+import com.ecarx.asrapi.configs.ASRConfig;
+import com.ecarx.asrapi.configs.NLUConfig;
+import com.ecarx.asrapi.configs.VADConfig;
+import com.ecarx.asrapi.domain.ASRSession;
+import com.ecarx.asrapi.dto.nano.ASR;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.FormBody;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/16
+ * @desc asr pipeline shared by all handlers
+ */
+@Slf4j
+@Service
+public class ASRService {
+
+	private final ASRConfig config;
+
+	private final NLUService nluService;
+
+	private final HttpService httpService;
+
+	private final NLUConfig nluConfig;
+
+	private final SessionRegistry sessions;
+
+	private final MeterRegistry registry;
+
+	private final Counter overflow;
+
+	private final VADConfig vadConfig;
+
+	private final VoiceActivityDetector detector;
+
+	private final Counter vadDropped;
+
+	private final Counter vadEndpointed;
+
+	public ASRService(final ASRConfig config, final NLUConfig nluConfig, final VADConfig vadConfig,
+			final NLUService nluService, final HttpService httpService, final SessionRegistry sessions,
+			final MeterRegistry registry) {
+
+		this.config = config;
+		this.nluConfig = nluConfig;
+		this.registry = registry;
+		this.nluService = nluService;
+		this.httpService = httpService;
+		this.sessions = sessions;
+		this.overflow = registry.counter("asr.up.buffer.overflow");
+		this.vadConfig = vadConfig;
+		this.detector = new VoiceActivityDetector(vadConfig.getEnergy(), vadConfig.getZeroCrossing());
+		this.vadDropped = registry.counter("asr.vad.dropped");
+		this.vadEndpointed = registry.counter("asr.vad.endpointed");
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/19
+	 * @desc decode client up stream and forward it to asr while it arrives, the returned mono
+	 * completes once LAST is received
+	 */
+	public Mono<String> handleASRUp(String id, String endpoint, boolean coalesce, Flux<DataBuffer> body) {
+
+		return handleASRUp(id, endpoint, coalesce, body, requests -> {
+			FrameDecoder<ASR.APIRequest> decoder = new FrameDecoder<>(requests.pool()::acquire,
+					requests.pool()::settle, config.getMaxFrameSize());
+			return buffer -> {
+				try {
+					return decoder.decode(buffer);
+				} finally {
+					DataBufferUtils.release(buffer);
+				}
+			};
+		});
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/13
+	 * @desc forward requests which are already decoded by the transport, e.g. grpc messages
+	 */
+	public Mono<String> handleASRUp(String id, String endpoint, boolean coalesce, Publisher<ASR.APIRequest> body) {
+
+		return handleASRUp(id, endpoint, coalesce, body, requests -> request -> Collections.singletonList(request));
+	}
+
+	private <T> Mono<String> handleASRUp(String id, String endpoint, boolean coalesce, Publisher<T> body,
+			Function<UpstreamBuffer, Unpacker<T>> unpackers) {
+
+		if (httpService.isSaturated()) {
+			return Mono.error(saturated());
+		}
+		long           startTime = System.currentTimeMillis();
+		UpstreamBuffer requests  = new UpstreamBuffer(config.getUpHighWater(), overflow);
+		Unpacker<T>    unpacker  = unpackers.apply(requests);
+		ASRSession     session   = sessions.acquire(id, endpoint);
+		session.setCoalesce(coalesce);
+		// wake up the upstream writer when the session is closed before LAST
+		session.onClose(() -> requests.offer(cancelRequest()));
+
+		return Mono.<String>create(call -> {
+			// one client element at a time, more are requested as the upstream drains the frames
+			BaseSubscriber<T> subscriber = new BaseSubscriber<T>() {
+
+				private boolean started;
+
+				private SilenceFilter silence;
+
+				private final Consumer<ASR.APIRequest> forward = requests::offer;
+
+				@Override
+				protected void hookOnSubscribe(Subscription subscription) {
+					subscription.request(1);
+				}
+
+				@Override
+				protected void hookOnNext(T element) {
+					boolean flag = false;
+					try {
+						for (ASR.APIRequest apiRequest : unpacker.unpack(element)) {
+							// the frame must not be touched once it is queued, the writer recycles it
+							final int type = apiRequest.apiReqType;
+							session.mark(ASRSession.Stage.UP_RECEIVED);
+							session.advance(ASR.API_REQ_TYPE_PARAM == type
+									? ASRSession.State.PARAM_RECEIVED : ASRSession.State.STREAMING);
+							if (ASR.API_REQ_TYPE_PARAM == type && null != apiRequest.param) {
+								silence = silenceFilter(apiRequest.param);
+							}
+							if (ASR.API_REQ_TYPE_LAST == type) {
+								flag = true;
+							}
+							if (null == silence) {
+								requests.offer(apiRequest);
+							} else {
+								silence.filter(apiRequest, forward);
+							}
+							log.info("receive msg type: {}, 耗时： {}", type, System.currentTimeMillis() - startTime);
+						}
+					} catch (IOException e) {
+						log.error("Decode ASR-Request failed, error msg: ", e);
+						call.error(e);
+						return;
+					}
+					// the upstream call starts with the first frame and streams while the client talks
+					if (!started && requests.size() > 0) {
+						started = true;
+						httpService.handleASRUp(session, requests);
+					}
+					if (flag) {
+						call.success("ok");
+					} else {
+						requests.request();
+					}
+				}
+
+				@Override
+				protected void hookOnError(Throwable throwable) {
+					call.error(throwable);
+				}
+			};
+			requests.onDemand(() -> subscriber.request(1));
+			call.onDispose(subscriber);
+			body.subscribe(subscriber);
+		}).takeUntilOther(session.closed())
+				.doFinally(signal -> sessions.release(session));
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/16
+	 * @desc stream asr responses of one session through the writer, MIDDLE and RES are emitted as
+	 * they arrive, NLU result is attached to LAST
+	 */
+	public Mono<Void> handleASRDown(String id, String endpoint,
+			Function<Flux<ASR.APIResponse>, Mono<Void>> writer) {
+
+		return handleASRDown(id, id, endpoint, writer);
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/14
+	 * @desc as above for a session of a device which runs many sessions, NLU tokens are kept per device
+	 */
+	public Mono<Void> handleASRDown(String id, String device, String endpoint,
+			Function<Flux<ASR.APIResponse>, Mono<Void>> writer) {
+
+		if (httpService.isSaturated()) {
+			return Mono.error(saturated());
+		}
+		Duration                      timeout = Duration.ofMillis(config.getTimeout());
+		AtomicReference<Mono<String>> nlu     = new AtomicReference<>();
+		NLUSpeculation                dialogs = new NLUSpeculation(text -> nluService.dialog(device, device, text),
+				nluConfig.getSpeculative() ? Duration.ofMillis(nluConfig.getSpeculativeWindow()) : null, registry);
+		AtomicReference<String>       outcome = new AtomicReference<>(SessionRegistry.OUTCOME_OK);
+		AtomicBoolean                 last    = new AtomicBoolean();
+		ASRSession                    session = sessions.acquire(id, endpoint);
+
+		Flux<ASR.APIResponse> responses = httpService.handleASRDown(session, new FormBody.Builder().build())
+				.timeout(timeout)
+				.filter(response -> ASR.API_RESP_TYPE_THIRD != response.type && ASR.API_RESP_TYPE_HEART != response.type)
+				.takeUntilOther(session.closed())
+				.concatMap(response -> {
+					final int type = response.type;
+					session.touch();
+					if (ASR.API_RESP_TYPE_MIDDLE == type) {
+						session.mark(ASRSession.Stage.FIRST_PARTIAL);
+						dialogs.onMiddle(transcript(response));
+					}
+					if (ASR.API_RESP_TYPE_RES == type) {
+						session.mark(ASRSession.Stage.RESULT);
+						String text = transcript(response);
+						log.info("ASR result：{}", text);
+						// NLU runs while LAST is still on its way, unless speculation already started it
+						Mono<String> dialog = dialogs.onResult(text);
+						dialog.doFinally(signal -> session.mark(ASRSession.Stage.NLU)).subscribe();
+						nlu.set(dialog);
+					}
+					if (ASR.API_RESP_TYPE_LAST == type) {
+						last.set(true);
+					}
+					if (ASR.API_RESP_TYPE_LAST == type && null != nlu.get()) {
+						return nlu.get()
+								.map(text -> {
+									ASR.ASRResult result = new ASR.ASRResult();
+									result.word = new String[]{text};
+									response.result = result;
+									return response;
+								})
+								.defaultIfEmpty(response);
+					}
+					return Mono.just(response);
+				})
+				.takeUntil(response -> ASR.API_RESP_TYPE_LAST == response.type)
+				.doFinally(signal -> dialogs.dispose())
+				.onErrorResume(e -> {
+					log.error("Take response failed, detail error msg: ", e);
+					outcome.set(e instanceof TimeoutException ? SessionRegistry.OUTCOME_TIMEOUT
+							: SessionRegistry.OUTCOME_ERROR);
+					return Flux.empty();
+				});
+
+		return writer.apply(responses)
+				.doOnSuccess(v -> {
+					if (last.get()) {
+						session.mark(ASRSession.Stage.LAST_FLUSHED);
+						session.advance(ASRSession.State.RESULT_DELIVERED);
+					} else {
+						outcome.compareAndSet(SessionRegistry.OUTCOME_OK, session.isClosed()
+								? SessionRegistry.OUTCOME_REAPED : SessionRegistry.OUTCOME_ERROR);
+					}
+				})
+				.doOnError(e -> outcome.set(SessionRegistry.OUTCOME_ERROR))
+				.doOnCancel(() -> outcome.set(SessionRegistry.OUTCOME_CANCEL))
+				.doFinally(signal -> {
+					sessions.complete(session, outcome.get());
+					sessions.release(session);
+				});
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/5
+	 * @desc silence filter of a session, null when vad is off or the audio format is not supported
+	 */
+	private SilenceFilter silenceFilter(ASR.ApiParam param) {
+		if (!vadConfig.getEnabled() || !VoiceActivityDetector.supports(param.format, param.sampleRate)) {
+			return null;
+		}
+		return new SilenceFilter(detector, vadConfig.getPreRoll(), vadConfig.getHangover(), vadConfig.getEndpoint(),
+				vadDropped, vadEndpointed);
+	}
+
+	private static ASR.APIRequest cancelRequest() {
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = ASR.API_REQ_TYPE_CANCEL;
+		request.cancel = new ASR.ApiCancel();
+		return request;
+	}
+
+	private static ResponseStatusException saturated() {
+		return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "ASR upstream saturated");
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/5
+	 * @desc text of a certain asr result, null when it can't be sent to NLU
+	 */
+	private static String transcript(final ASR.APIResponse response) {
+
+		if (0 == response.errNo && null != response.result) {
+			StringBuilder sb      = new StringBuilder();
+			String[]      words   = response.result.word;
+			String[]      unknown = response.result.uncertainWord;
+			if (0 == unknown.length) {
+				for (String word : words) {
+					sb.append(word);
+				}
+				return sb.toString();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/13
+	 * @desc turns one element of a client up stream into requests
+	 */
+	@FunctionalInterface
+	private interface Unpacker<T> {
+
+		Iterable<ASR.APIRequest> unpack(T element) throws IOException;
+	}
+}
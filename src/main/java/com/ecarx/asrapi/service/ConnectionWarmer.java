@@ -0,0 +1,93 @@
+package com.ecarx.asrapi.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/15
+ * @desc opens connections of one backend ahead of real traffic with concurrent HEAD probes, any
+ * response counts since only the connection matters. Over HTTP/2 concurrent probes share one
+ * connection, so an http/2 backend ends up with a single connection whatever the target. As
+ * interceptor it times the first real request after startup, which shows what a cold connection costs.
+ */
+@Slf4j
+class ConnectionWarmer implements Interceptor {
+
+	private final Timer firstRequest;
+
+	private final AtomicBoolean first = new AtomicBoolean(true);
+
+	// requests which are timed, responses of the others may wait for more than the connection
+	private final Predicate<Request> timed;
+
+	ConnectionWarmer(String backend, Predicate<Request> timed, MeterRegistry registry) {
+		this.timed = timed;
+		this.firstRequest = Timer.builder("upstream.first.request")
+				.description("time to response headers of the first request after startup")
+				.tag("backend", backend)
+				.register(registry);
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		if (!first.get() || null != chain.request().tag(ConnectionWarmer.class) || !timed.test(chain.request())) {
+			return chain.proceed(chain.request());
+		}
+		long     start    = System.nanoTime();
+		Response response = chain.proceed(chain.request());
+		if (first.compareAndSet(true, false)) {
+			firstRequest.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		return response;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/15
+	 * @desc probe the url on the given number of concurrent connections, emits the number of
+	 * pooled connections afterwards
+	 */
+	Mono<Integer> warm(OkHttpClient client, String url, int connections) {
+		return Flux.range(0, connections)
+				.flatMap(i -> probe(client, url).onErrorResume(e -> {
+					log.warn("Probe {} failed, error msg: {}", url, e.toString());
+					return Mono.empty();
+				}), connections)
+				.then(Mono.fromCallable(() -> client.connectionPool().connectionCount()));
+	}
+
+	private Mono<Void> probe(OkHttpClient client, String url) {
+		return Mono.create(sink -> {
+			Request request = new Request.Builder().url(url).head().tag(ConnectionWarmer.class, this).build();
+			Call    call    = client.newCall(request);
+			sink.onCancel(call::cancel);
+			call.enqueue(new Callback() {
+				@Override
+				public void onFailure(Call call, IOException e) {
+					sink.error(e);
+				}
+
+				@Override
+				public void onResponse(Call call, Response response) {
+					response.close();
+					sink.success();
+				}
+			});
+		});
+	}
+}
@@ -1,33 +1,49 @@
 package com.ecarx.asrapi.service;
 
 import com.ecarx.asrapi.configs.ASRConfig;
+import com.ecarx.asrapi.configs.WarmUpConfig;
 import com.ecarx.asrapi.domain.ASRResponse;
+import com.ecarx.asrapi.domain.ASRSession;
 import com.ecarx.asrapi.dto.nano.ASR;
+import com.ecarx.asrapi.executor.Bulkhead;
+import com.ecarx.asrapi.executor.ExecutionService;
+import com.ecarx.asrapi.resilience.LoadBalancer;
 import com.google.protobuf.nano.MessageNano;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.Headers;
+import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
-import okio.Buffer;
+import okhttp3.ResponseBody;
 import okio.BufferedSink;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * @author ITACHY
@@ -38,68 +54,93 @@ import java.util.function.BiConsumer;
 @Service
 public class HttpService {
 
+	// latency probes send 10 frames of 20 ms 16 kHz pcm
+	private static final int PROBE_FRAMES = 10;
+
+	private static final int PROBE_FRAME_BYTES = 640;
+
 	private final ASRConfig config;
 
-	private final ThreadPoolExecutor executor;
+	private final Bulkhead executor;
 
-	private static final int TIME_OUT = 30000;
+	private final Dispatcher dispatcher;
 
-	private static final OkHttpClient httpUpClient;
+	private final SessionRegistry sessions;
 
-	static {
-		OkHttpClient.Builder upClientBuilder = new OkHttpClient.Builder()
-				.readTimeout(TIME_OUT, TimeUnit.MILLISECONDS)
-				.writeTimeout(TIME_OUT, TimeUnit.MILLISECONDS)
-				.connectTimeout(TIME_OUT, TimeUnit.MILLISECONDS)
-				.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
-		httpUpClient = upClientBuilder.build();
-	}
+	private final OkHttpClient httpUpClient;
+
+	private final OkHttpClient probeClient;
+
+	private final Counter flushes;
+
+	private final ConnectionWarmer warmer;
 
-	public HttpService(final ASRConfig config) {
+	private final LoadBalancer balancer;
+
+	public HttpService(final ASRConfig config, final WarmUpConfig warmUpConfig,
+			final ExecutionService executionService, final SessionRegistry sessions, final MeterRegistry registry) {
 
 		this.config = config;
-		this.executor = new ScheduledThreadPoolExecutor(config.getThreads());
+		this.sessions = sessions;
+		this.executor = executionService.upstream();
+		this.flushes = registry.counter("asr.upstream.flushes");
+		// /up only answers after the whole upload, the first /down shows the connection cost
+		this.warmer = new ConnectionWarmer("asr", request -> request.url().encodedPath().endsWith("/down"),
+				registry);
+
+		// one client shared by all sessions, so up and down streams reuse warm connections.
+		// a stream holds its thread until it ends, so no more streams are admitted than there are
+		// threads, a queued stream would only stall until another session finishes
+		this.dispatcher = new Dispatcher(executor);
+		dispatcher.setMaxRequests(executor.getThreads());
+		dispatcher.setMaxRequestsPerHost(executor.getThreads());
+		this.httpUpClient = new OkHttpClient.Builder()
+				.readTimeout(config.getTimeout(), TimeUnit.MILLISECONDS)
+				.writeTimeout(config.getTimeout(), TimeUnit.MILLISECONDS)
+				.connectTimeout(config.getTimeout(), TimeUnit.MILLISECONDS)
+				.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+				.connectionPool(new ConnectionPool(config.getPoolSize(), config.getKeepAlive(), TimeUnit.MILLISECONDS))
+				.pingInterval(warmUpConfig.getPingInterval(), TimeUnit.MILLISECONDS)
+				.dispatcher(dispatcher)
+				.addInterceptor(warmer)
+				.addNetworkInterceptor(this::interceptASRResponse)
+				.build();
+		// probes share the connection pool but not the admission of sessions, so they are not
+		// counted by isSaturated and never turn sessions away
+		Dispatcher probes = new Dispatcher(executionService.probes());
+		probes.setMaxRequests(executionService.probes().getThreads());
+		this.probeClient = httpUpClient.newBuilder().dispatcher(probes).build();
+
+		List<String> urls = config.getUrls().isEmpty() ? Collections.singletonList(config.getUrl()) : config.getUrls();
+		this.balancer = new LoadBalancer("asr", urls, config.getEjectFailures(), config.getSlowResult(),
+				config.getLatencyDecay(), registry);
+		long interval = config.getHealthInterval();
+		executionService.scheduler().scheduleWithFixedDelay(
+				() -> balancer.check(this::checkHealth, this::checkLatency), interval, interval, TimeUnit.MILLISECONDS);
 	}
 
 	/**
 	 * @author ITACHY
-	 * @date 2018/11/3
-	 * @desc handle asr up request
+	 * @date 2018/12/15
+	 * @desc open connections to asr ahead of the first session, emits the number of pooled connections
 	 */
-	public void handleASRUp(String id, LinkedBlockingQueue<ASR.APIRequest> requests) {
+	public Mono<Integer> warmUp(int connections) {
+		return Flux.fromIterable(balancer.getBackends())
+				.flatMap(backend -> warmer.warm(probeClient, backend.getUrl(), connections))
+				.then(Mono.fromCallable(this::connectionCount));
+	}
 
-		//handle up steam
-		RequestBody body = new RequestBody() {
-			@Nullable
-			@Override
-			public MediaType contentType() {
-				return null;
-			}
+	public int connectionCount() {
+		return httpUpClient.connectionPool().connectionCount();
+	}
 
-			@Override
-			public void writeTo(BufferedSink sink) {
-				try {
-					ASR.APIRequest request = requests.poll(config.getTimeout(), TimeUnit.MILLISECONDS);
-					while (null != request) {
-						int    type  = request.apiReqType;
-						byte[] bytes = MessageNano.toByteArray(request);
-						sink.writeIntLe(bytes.length);
-						sink.write(bytes);
-						sink.flush();
-						if (ASR.API_REQ_TYPE_LAST == type || ASR.API_REQ_TYPE_CANCEL == type) {
-							break;
-						}
-						request = requests.poll(30000, TimeUnit.MILLISECONDS);
-					}
-				} catch (Exception e) {
-					log.error("Build ASR-Request body failed, error msg: ", e);
-				}
-			}
-		};
-		Headers headers = buildUpHeader();
-		String  url     = config.getUrl() + "/up?id=" + id;
-		log.info("发起ASR Up请求");
-		executor.execute(() -> handlePostASR(url, body, headers, null));
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/21
+	 * @desc true when no thread is free for a new upstream stream
+	 */
+	public boolean isSaturated() {
+		return dispatcher.runningCallsCount() >= dispatcher.getMaxRequests();
 	}
 
 	/**
@@ -107,83 +148,242 @@ public class HttpService {
 	 * @date 2018/11/3
 	 * @desc handle asr up request
 	 */
-	public void handleASRUp(String id, final RequestBody body) {
+	public void handleASRUp(ASRSession session, UpstreamBuffer requests) {
+
 		//handle up steam
-		Headers headers = buildUpHeader();
-		String  url     = config.getUrl() + "/up?id=" + id;
-		//handlePostASR(url, body, headers, null);
-		executor.execute(() -> handlePostASR(url, body, headers, null));
+		long        window = session.isCoalesce() ? config.getCoalesceWindow() : 0;
+		RequestBody body   = new UpstreamBody(session, requests, config.getTimeout(), window,
+				config.getCoalesceBytes(), flushes);
+		LoadBalancer.Backend backend = backend(session);
+		Headers              headers = buildUpHeader();
+		String               url     = backend.getUrl() + "/up?id=" + session.getId();
+		log.info("发起ASR Up请求");
+		// the session stays open until the upstream call is done
+		sessions.retain(session);
+		Call call = handlePostASR(httpUpClient, backend, url, body, headers, null, e -> sessions.release(session));
+		session.onClose(call::cancel);
 	}
 
 	/**
 	 * @author ITACHY
 	 * @date 2018/11/8
-	 * @desc handle asr down request
+	 * @desc handle asr down request, responses are pushed as soon as they are decoded. The latency
+	 * from the first upstream flush to the first result rates the backend
 	 */
-	public LinkedBlockingQueue<ASR.APIResponse> handleASRDown(String id, RequestBody body) {
+	public Flux<ASR.APIResponse> handleASRDown(ASRSession session, RequestBody body) {
 
-		LinkedBlockingQueue<ASR.APIResponse> responses = new LinkedBlockingQueue<>();
 		//handle down stream
-		String  url     = config.getUrl() + "/down?id=" + id;
-		Headers headers = buildDownHeader();
-
-		BiConsumer<Buffer, Long> callBack = (sink, byteCount) -> {
-			try {
-				while (sink.size() > 4) {
-					long            len      = sink.readIntLe();
-					byte[]          data     = sink.readByteArray(len);
-					ASR.APIResponse response = ASR.APIResponse.parseFrom(data);
-					responses.add(response);
+		LoadBalancer.Backend backend = backend(session);
+		String               url     = backend.getUrl() + "/down?id=" + session.getId();
+		Headers              headers = buildDownHeader();
+		AtomicBoolean        sampled = new AtomicBoolean();
+
+		return Flux.<ASR.APIResponse>create(responses -> {
+			log.info("发起ASR Down请求");
+			Call call = handlePostASR(httpUpClient, backend, url, body, headers, responses, e -> {
+				if (null == e) {
+					responses.complete();
+				} else {
+					responses.error(e);
 				}
-			} catch (Exception e) {
-				log.error("Read response failed. error msg: ", e);
+			});
+			responses.onDispose(call::cancel);
+		}).doOnNext(response -> {
+			// backends are rated from the first audio they got, PARAM is sent before the user speaks
+			long written = session.at(ASRSession.Stage.DATA_WRITTEN);
+			if ((ASR.API_RESP_TYPE_MIDDLE == response.type || ASR.API_RESP_TYPE_RES == response.type)
+					&& 0 != written && sampled.compareAndSet(false, true)) {
+				balancer.onLatency(backend, System.nanoTime() - written);
 			}
-		};
-		log.info("发起ASR Down请求");
-		executor.execute(() -> handlePostASR(url, body, headers, callBack));
-		return responses;
+		});
 	}
 
 	/**
 	 * @author ITACHY
 	 * @date 2018/11/3
-	 * @desc send all requests by POST method
+	 * @desc send all requests by POST method, onDone receives null once the response is read.
+	 * Responses of calls with a sink are decoded into it
 	 */
-	private void handlePostASR(String url, RequestBody body, Headers headers, BiConsumer<Buffer, Long> callBack) {
-		OkHttpClient httpClient = httpUpClient;
-		if (null != callBack) {
-
-			OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder();
-			clientBuilder.readTimeout(TIME_OUT, TimeUnit.MILLISECONDS)
-					.writeTimeout(TIME_OUT, TimeUnit.MILLISECONDS)
-					.connectTimeout(TIME_OUT, TimeUnit.MILLISECONDS)
-					.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
-					.addNetworkInterceptor(chain -> {
-						Response response = chain.proceed(chain.request());
-						return response.newBuilder().body(new ASRResponse(response.body(), callBack)).build();
-					});
-			httpClient = clientBuilder.build();
+	private Call handlePostASR(OkHttpClient client, LoadBalancer.Backend backend, String url, RequestBody body,
+			Headers headers, @Nullable FluxSink<ASR.APIResponse> responses, Consumer<Throwable> onDone) {
+
+		Request.Builder builder = new Request.Builder().url(url).post(body).headers(headers);
+		if (null != responses) {
+			builder.tag(FluxSink.class, responses);
 		}
-		Request request = new Request.Builder().url(url).post(body).headers(headers).build();
+		Request request = builder.build();
 
-		httpClient.newCall(request).enqueue(new Callback() {
+		Call call = client.newCall(request);
+		backend.start();
+		call.enqueue(new Callback() {
 			@Override
 			public void onFailure(Call call, IOException e) {
-				log.error("ASR request failed, fail msg: ", e);
+				backend.finish();
+				onDone.accept(e);
+				if (!call.isCanceled()) {
+					balancer.onFailure(backend);
+					log.error("ASR request failed, fail msg: ", e);
+				}
 			}
 
 			@Override
-			public void onResponse(Call call, Response response) throws IOException {
+			public void onResponse(Call call, Response response) {
 				//trigger read response
-				if (null != callBack) {
-					log.info(url + ", resp_code:" + response.code());
-					log.info(url + ", resp_message:" + response.message());
-					log.info(url + ", resp_encoding:" + response.header("Transfer-Encoding"));
-					log.info(url + ", resp_protocol:" + response.protocol());
-					log.info(url + ", response text: ", response.body().string());
+				try (ResponseBody responseBody = response.body()) {
+					if (!response.isSuccessful()) {
+						balancer.onFailure(backend);
+					}
+					if (responseBody instanceof ASRResponse) {
+						log.info(url + ", resp_code:" + response.code());
+						log.info(url + ", resp_protocol:" + response.protocol());
+						if (!response.isSuccessful()) {
+							throw new IOException("ASR down failed with " + response.code() + " " + response.message());
+						}
+						((ASRResponse) responseBody).drain();
+					}
+				} catch (IOException e) {
+					if (response.isSuccessful() && !call.isCanceled()) {
+						balancer.onFailure(backend);
+					}
+					onDone.accept(e);
+					return;
+				} finally {
+					backend.finish();
 				}
+				onDone.accept(null);
 			}
 		});
+		return call;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/16
+	 * @desc backend of the session, up and down of a session go to the same backend
+	 */
+	private LoadBalancer.Backend backend(ASRSession session) {
+		String id = session.getId();
+		session.onClose(() -> balancer.unpin(id));
+		return balancer.select(id);
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/16
+	 * @desc active check of a backend ejected for failures, any response but a server error passes
+	 */
+	private Mono<Boolean> checkHealth(LoadBalancer.Backend backend) {
+		return Mono.create(sink -> {
+			Call call = probeClient.newCall(new Request.Builder().url(backend.getUrl()).head().build());
+			sink.onCancel(call::cancel);
+			call.enqueue(new Callback() {
+				@Override
+				public void onFailure(Call call, IOException e) {
+					sink.success(false);
+				}
+
+				@Override
+				public void onResponse(Call call, Response response) {
+					response.close();
+					sink.success(response.code() < 500);
+				}
+			});
+		});
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/16
+	 * @desc active check of a backend which was ejected for slow results, a short silent utterance is
+	 * recognized, emits the nanos from its audio to the first result
+	 */
+	private Mono<Long> checkLatency(LoadBalancer.Backend backend) {
+
+		String     id      = "probe-" + System.nanoTime();
+		AtomicLong written = new AtomicLong();
+		RequestBody body = new RequestBody() {
+			@Nullable
+			@Override
+			public MediaType contentType() {
+				return null;
+			}
+
+			@Override
+			public void writeTo(BufferedSink sink) throws IOException {
+				for (ASR.APIRequest request : probeRequests(id)) {
+					byte[] bytes = MessageNano.toByteArray(request);
+					sink.writeIntLe(bytes.length);
+					sink.write(bytes);
+				}
+				sink.flush();
+				written.compareAndSet(0, System.nanoTime());
+			}
+		};
+		return Flux.<ASR.APIResponse>create(responses -> {
+			String down = backend.getUrl() + "/down?id=" + id;
+			String up   = backend.getUrl() + "/up?id=" + id;
+			Call downCall = handlePostASR(probeClient, backend, down, RequestBody.create(null, new byte[0]),
+					buildDownHeader(), responses, e -> {
+						if (null == e) {
+							responses.complete();
+						} else {
+							responses.error(e);
+						}
+					});
+			Call upCall = handlePostASR(probeClient, backend, up, body, buildUpHeader(), null, e -> {
+			});
+			responses.onDispose(() -> {
+				downCall.cancel();
+				upCall.cancel();
+			});
+		})
+				.filter(response -> ASR.API_RESP_TYPE_MIDDLE == response.type || ASR.API_RESP_TYPE_RES == response.type
+						|| ASR.API_RESP_TYPE_LAST == response.type)
+				.next()
+				.map(response -> System.nanoTime() - written.get())
+				.timeout(Duration.ofMillis(config.getTimeout()));
+	}
+
+	private static List<ASR.APIRequest> probeRequests(String id) {
+		List<ASR.APIRequest> requests = new ArrayList<>();
+		ASR.APIRequest       param    = new ASR.APIRequest();
+		param.apiReqType = ASR.API_REQ_TYPE_PARAM;
+		param.param = new ASR.ApiParam();
+		param.param.cuid = id;
+		param.param.sampleRate = 16000;
+		param.param.format = "pcm";
+		requests.add(param);
+		// 200 ms of silence
+		for (int i = 0; i < PROBE_FRAMES; i++) {
+			ASR.APIRequest data = new ASR.APIRequest();
+			data.apiReqType = ASR.API_REQ_TYPE_DATA;
+			data.data = new ASR.ApiData();
+			data.data.len = PROBE_FRAME_BYTES;
+			data.data.postData = new byte[PROBE_FRAME_BYTES];
+			requests.add(data);
+		}
+		ASR.APIRequest last = new ASR.APIRequest();
+		last.apiReqType = ASR.API_REQ_TYPE_LAST;
+		last.last = new ASR.ApiLast();
+		requests.add(last);
+		return requests;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/20
+	 * @desc wrap the response body of calls tagged with a sink
+	 */
+	@SuppressWarnings("unchecked")
+	private Response interceptASRResponse(Interceptor.Chain chain) throws IOException {
+		Response                  response  = chain.proceed(chain.request());
+		FluxSink<ASR.APIResponse> responses = chain.request().tag(FluxSink.class);
+		if (null == responses) {
+			return response;
+		}
+		return response.newBuilder()
+				.body(new ASRResponse(response.body(), responses, config.getMaxFrameSize()))
+				.build();
 	}
 
 	/**
@@ -2,23 +2,39 @@ package com.ecarx.asrapi.service;
 
 import com.alibaba.fastjson.JSONObject;
 import com.ecarx.asrapi.configs.NLUConfig;
+import com.ecarx.asrapi.configs.WarmUpConfig;
+import com.ecarx.asrapi.executor.ExecutionService;
+import com.ecarx.asrapi.resilience.CircuitBreaker;
+import com.ecarx.asrapi.resilience.RetryPolicy;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.FormBody;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import reactor.core.publisher.Mono;
 
 import java.io.IOException;
-import java.util.concurrent.CompletableFuture;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -33,52 +49,224 @@ public class NLUService {
 
 	private final NLUConfig config;
 
-	private static OkHttpClient httpClient;
+	private final OkHttpClient httpClient;
 
-	private static final int TIME_OUT = 30000;
+	private final AsyncLoadingCache<TokenKey, String> tokens;
 
-	static {
-		OkHttpClient.Builder builder = new OkHttpClient.Builder();
-		builder.connectTimeout(TIME_OUT, TimeUnit.MILLISECONDS)
-				.readTimeout(TIME_OUT, TimeUnit.MILLISECONDS)
-				.writeTimeout(TIME_OUT, TimeUnit.MILLISECONDS);
-		httpClient = builder.build();
-	}
+	private final Cache<String, String> results;
+
+	private final Set<String> excludedDomains;
+
+	private final RetryPolicy retryPolicy;
+
+	private final CircuitBreaker breaker;
 
-	public NLUService(final NLUConfig config) {
+	private final MeterRegistry registry;
+
+	private final ConnectionWarmer warmer;
+
+	public NLUService(final NLUConfig config, final WarmUpConfig warmUpConfig,
+			final ExecutionService executionService, final MeterRegistry registry) {
 		this.config = config;
+		this.registry = registry;
+		this.warmer = new ConnectionWarmer("nlu", request -> true, registry);
+
+		// calls are asynchronous, OkHttp runs each exchange on the NLU bulkhead, nothing else runs there
+		// so the dispatcher limit fits it. A rejected exchange fails its call, it never holds a slot
+		Dispatcher dispatcher = new Dispatcher(executionService.nlu());
+		dispatcher.setMaxRequests(executionService.nlu().getLimit());
+		dispatcher.setMaxRequestsPerHost(executionService.nlu().getLimit());
+		this.httpClient = new OkHttpClient.Builder()
+				.connectTimeout(config.getTimeout(), TimeUnit.MILLISECONDS)
+				.readTimeout(config.getTimeout(), TimeUnit.MILLISECONDS)
+				.writeTimeout(config.getTimeout(), TimeUnit.MILLISECONDS)
+				.pingInterval(warmUpConfig.getPingInterval(), TimeUnit.MILLISECONDS)
+				.dispatcher(dispatcher)
+				.addInterceptor(warmer)
+				.build();
+
+		this.retryPolicy = new RetryPolicy(config.getRetryAttempts(), config.getRetryBackoff(),
+				config.getRetryMaxBackoff(), config.getRetryBudget());
+		this.breaker = new CircuitBreaker("nlu", config.getBreakerFailures(), config.getBreakerOpen());
+		Gauge.builder("nlu.circuit.state", breaker, circuit -> circuit.getState().ordinal())
+				.description("0 closed, 1 half open, 2 open")
+				.register(registry);
+
+		// tokens are reused across utterances of a device, refreshed in the background shortly
+		// before they expire and logged out once evicted
+		this.tokens = Caffeine.newBuilder()
+				.maximumSize(config.getTokenCapacity())
+				.expireAfterWrite(config.getTokenTtl(), TimeUnit.MILLISECONDS)
+				.refreshAfterWrite(config.getTokenTtl() - config.getTokenRefresh(), TimeUnit.MILLISECONDS)
+				// refreshing only enqueues a login, it must not take room of the dialogs on the bulkhead
+				.executor(executionService.scheduler())
+				.removalListener((TokenKey key, String accessToken, RemovalCause cause) -> {
+					// a replaced token may still be used by an in-flight dialog, let it expire on the server
+					if (null != key && null != accessToken && RemovalCause.REPLACED != cause) {
+						logout(accessToken, key.getDevice());
+					}
+				})
+				.recordStats()
+				.buildAsync((key, executor) -> login(key.getDevice(), key.getUid())
+						.map(NLUService::accessToken)
+						.toFuture());
+		CaffeineCacheMetrics.monitor(registry, tokens.synchronous(), "nlu.token");
+
+		// car commands repeat a lot, results of context free domains are shared by all devices
+		this.results = Caffeine.newBuilder()
+				.maximumSize(config.getCacheCapacity())
+				.expireAfterWrite(config.getCacheTtl(), TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+		this.excludedDomains = new HashSet<>(config.getCacheExcludedDomains());
+		CaffeineCacheMetrics.monitor(registry, results, "nlu.result");
 	}
 
-	public String dialog(String device, String uid, String text) {
-
-		String domain = null, nlu = null;
-		try {
-			String     result      = login(device, uid);
-			JSONObject jsonObject  = JSONObject.parseObject(result);
-			String     accessToken = jsonObject.getString("accessToken");
-			log.info("Token: {}", accessToken);
-			if (null != accessToken) {
-				talk(text, accessToken);
-				// 这里获取服务器的数据
-				nlu = fetch(accessToken);
-				jsonObject = JSONObject.parseObject(nlu);
-				domain = jsonObject.getString("domain");
-				logout(accessToken, device);
-				if (StringUtils.isEmpty(domain)) {
-					return dialog(device, uid, text);
-				}
-			}
-		} catch (Exception e) {
-			log.error("Exception occur, error msg: ", e);
-			if (StringUtils.isEmpty(domain)) {
-				return dialog(device, uid, text);
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/15
+	 * @desc open connections to NLU ahead of the first dialog, emits the number of pooled connections
+	 */
+	public Mono<Integer> warmUp(int connections) {
+		return warmer.warm(httpClient, config.getUrl(), connections);
+	}
+
+	public int connectionCount() {
+		return httpClient.connectionPool().connectionCount();
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/26
+	 * @desc NLU result of the text, empty when the NLU server is unavailable so the plain asr
+	 * result is used
+	 */
+	public Mono<String> dialog(String device, String uid, String text) {
+
+		String key    = normalize(text);
+		String cached = key.isEmpty() ? null : results.getIfPresent(key);
+		if (null != cached) {
+			log.info("NLU cache hit: {}", text);
+			return Mono.just(cached);
+		}
+		if (!breaker.allowRequest()) {
+			registry.counter("nlu.dialog", "result", "rejected").increment();
+			log.warn("NLU circuit open, skip dialog of {}", device);
+			return Mono.empty();
+		}
+		// only one call passes a half open breaker, it is the trial
+		boolean trial = CircuitBreaker.State.HALF_OPEN == breaker.getState();
+		retryPolicy.onCall();
+		// the breaker counts dialogs, not attempts, and only failures of the server
+		return dialog(device, uid, text, 1)
+				.doOnSuccess(nlu -> {
+					breaker.onSuccess();
+					registry.counter("nlu.dialog", "result", null == nlu ? "unrecognized" : "ok").increment();
+				})
+				.onErrorResume(e -> {
+					breaker.onFailure();
+					registry.counter("nlu.dialog", "result", "failed").increment();
+					return Mono.empty();
+				})
+				.doOnCancel(() -> {
+					if (trial) {
+						breaker.onCancel();
+					}
+				})
+				.doOnNext(nlu -> {
+					String domain = JSONObject.parseObject(nlu).getString("domain");
+					if (!key.isEmpty() && !excludedDomains.contains(domain)) {
+						results.put(key, nlu);
+					}
+				});
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/29
+	 * @desc cache key of the text, whitespace and punctuation removed and lower cased
+	 */
+	private static String normalize(String text) {
+		StringBuilder sb = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); ) {
+			int codePoint = text.codePointAt(i);
+			i += Character.charCount(codePoint);
+			if (Character.isWhitespace(codePoint) || isPunctuation(codePoint)) {
+				continue;
 			}
-			return nlu;
+			sb.appendCodePoint(Character.toLowerCase(codePoint));
 		}
-		return nlu;
+		return sb.toString();
 	}
 
-	public String login(String device, String uid) {
+	private static boolean isPunctuation(int codePoint) {
+		switch (Character.getType(codePoint)) {
+		case Character.CONNECTOR_PUNCTUATION:
+		case Character.DASH_PUNCTUATION:
+		case Character.START_PUNCTUATION:
+		case Character.END_PUNCTUATION:
+		case Character.INITIAL_QUOTE_PUNCTUATION:
+		case Character.FINAL_QUOTE_PUNCTUATION:
+		case Character.OTHER_PUNCTUATION:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/26
+	 * @desc attempts of one dialog, failed attempts are retried, an unrecognized text is not
+	 */
+	private Mono<String> dialog(String device, String uid, String text, int attempts) {
+
+		return dialogOnce(device, uid, text)
+				.onErrorResume(e -> {
+					log.error("NLU dialog attempt {} failed, error msg: ", attempts, e);
+					if (!retryPolicy.tryRetry(attempts)) {
+						return Mono.error(e);
+					}
+					registry.counter("nlu.retry").increment();
+					return Mono.delay(Duration.ofMillis(retryPolicy.backoff(attempts)))
+							.then(Mono.defer(() -> dialog(device, uid, text, attempts + 1)));
+				});
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/26
+	 * @desc one dialog attempt, empty when no domain was recognized, error when the server failed
+	 */
+	private Mono<String> dialogOnce(String device, String uid, String text) {
+
+		TokenKey key = new TokenKey(device, uid);
+		return Mono.defer(() -> Mono.fromFuture(tokens.get(key)))
+				.doOnNext(accessToken -> log.info("Token: {}", accessToken))
+				.flatMap(accessToken -> talkAndFetch(text, accessToken))
+				.onErrorResume(AuthException.class, e -> {
+					log.warn("NLU token of {} rejected, login again", device);
+					tokens.synchronous().invalidate(key);
+					return Mono.defer(() -> Mono.fromFuture(tokens.get(key)))
+							.flatMap(accessToken -> talkAndFetch(text, accessToken));
+				})
+				.filter(nlu -> {
+					JSONObject jsonObject = JSONObject.parseObject(nlu);
+					return null != jsonObject && !StringUtils.isEmpty(jsonObject.getString("domain"));
+				});
+	}
+
+	private Mono<String> talkAndFetch(String text, String accessToken) {
+		// 这里获取服务器的数据
+		return talk(text, accessToken).then(fetch(accessToken));
+	}
+
+	private static String accessToken(String login) {
+		JSONObject jsonObject = JSONObject.parseObject(login);
+		return null == jsonObject ? null : jsonObject.getString("accessToken");
+	}
+
+	public Mono<String> login(String device, String uid) {
 
 		JSONObject json   = new JSONObject();
 		JSONObject client = new JSONObject();
@@ -107,13 +295,8 @@ public class NLUService {
 
 		RequestBody body    = FormBody.create(MediaType.parse("application/json"), json.toJSONString());
 		Request     request = new Request.Builder().url(uri).post(body).build();
-		try {
-			Response response = httpClient.newCall(request).execute();
-			return response.body().string();
-		} catch (Exception e) {
-			log.error("NLU Login request falied, error msg: ", e);
-			return null;
-		}
+		return execute(request)
+				.doOnError(e -> log.error("NLU Login request falied, error msg: ", e));
 	}
 
 	public void logout(String accessToken, String device) {
@@ -141,7 +324,7 @@ public class NLUService {
 		});
 	}
 
-	public void talk(String text, String accessToken) {
+	public Mono<String> talk(String text, String accessToken) {
 		log.info("Talk: {}", text);
 		JSONObject json = new JSONObject();
 		json.put("clientinfo", new JSONObject());
@@ -156,20 +339,12 @@ public class NLUService {
 		RequestBody body    = FormBody.create(MediaType.parse("application/json"), json.toJSONString());
 		Request     request = new Request.Builder().url(uri).post(body).build();
 
-		httpClient.newCall(request).enqueue(new Callback() {
-			@Override
-			public void onFailure(Call call, IOException e) {
-				log.error("Logout Failed, error msg: ", e);
-			}
-
-			@Override
-			public void onResponse(Call call, Response response) throws IOException {
-				log.info("Talk Success!, msg: {}", response.body().string());
-			}
-		});
+		return execute(request)
+				.doOnNext(result -> log.info("Talk Success!, msg: {}", result))
+				.doOnError(e -> log.error("Talk Failed, error msg: ", e));
 	}
 
-	public String fetch(String accessToken) {
+	public Mono<String> fetch(String accessToken) {
 
 		String uri = new StringBuilder(config.getUrl())
 				.append("fetch?protocol=").append(config.getProtocol())
@@ -177,15 +352,63 @@ public class NLUService {
 				.append("&ak=").append(accessToken)
 				.toString();
 		Request request = new Request.Builder().url(uri).get().build();
-		try {
-			Response response = httpClient.newCall(request).execute();
-			String   result   = response.body().string();
-			log.info("NLU fetch msg: {}", result);
-			return result;
-		} catch (Exception e) {
-			log.error("NLU Fetch request falied, error msg: ", e);
-			return null;
-		}
+		return execute(request)
+				.doOnNext(result -> log.info("NLU fetch msg: {}", result))
+				.doOnError(e -> log.error("NLU Fetch request falied, error msg: ", e));
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/27
+	 * @desc enqueue the request, the body is emitted once the response is read, 401 and 403
+	 * signal AuthException, server errors IOException
+	 */
+	private Mono<String> execute(Request request) {
+		return Mono.create(sink -> {
+			Call call = httpClient.newCall(request);
+			sink.onCancel(call::cancel);
+			call.enqueue(new Callback() {
+				@Override
+				public void onFailure(Call call, IOException e) {
+					sink.error(e);
+				}
+
+				@Override
+				public void onResponse(Call call, Response response) {
+					try (ResponseBody body = response.body()) {
+						String result = body.string();
+						if (401 == response.code() || 403 == response.code()) {
+							sink.error(new AuthException(result));
+						} else if (response.code() >= 500) {
+							sink.error(new IOException("NLU failed with " + response.code() + " " + response.message()));
+						} else {
+							sink.success(result);
+						}
+					} catch (IOException e) {
+						sink.error(e);
+					}
+				}
+			});
+		});
 	}
 
+	@Value
+	private static class TokenKey {
+
+		private String device;
+
+		private String uid;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/23
+	 * @desc NLU server rejected the access token
+	 */
+	private static class AuthException extends RuntimeException {
+
+		AuthException(String message) {
+			super(message);
+		}
+	}
 }
@@ -0,0 +1,141 @@
+package com.ecarx.asrapi.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/28
+ * @desc NLU dialog of one session. When speculation is enabled the dialog is started as soon as
+ * the MIDDLE transcript stays unchanged for the window, the final RES reuses it when the text matches,
+ * otherwise it is cancelled and a new dialog is started. Once a dialog was returned for RES it
+ * belongs to the caller, MIDDLE transcripts of a following sentence never cancel it.
+ */
+@Slf4j
+class NLUSpeculation {
+
+	private final Function<String, Mono<String>> dialog;
+
+	private final Duration window;
+
+	private final MeterRegistry registry;
+
+	// latest MIDDLE transcript and the timer waiting for it to become stable
+	private String middle;
+
+	private Disposable timer;
+
+	// running dialog and the text it was started with
+	private String text;
+
+	private MonoProcessor<String> result;
+
+	private Disposable running;
+
+	// dialogs returned for RES, only cancelled when the session ends
+	private final Disposable.Composite delivered = Disposables.composite();
+
+	NLUSpeculation(Function<String, Mono<String>> dialog, Duration window, MeterRegistry registry) {
+		this.dialog = dialog;
+		this.window = window;
+		this.registry = registry;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/28
+	 * @desc a MIDDLE transcript arrived, null when it is not usable for NLU
+	 */
+	synchronized void onMiddle(String transcript) {
+		if (null == window || null == transcript || transcript.equals(middle)) {
+			return;
+		}
+		middle = transcript;
+		cancelTimer();
+		if (null != running) {
+			discard("cancelled");
+		}
+		timer = Mono.delay(window).subscribe(tick -> speculate(transcript));
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/28
+	 * @desc the final RES arrived, returns the NLU result to attach to LAST
+	 */
+	synchronized Mono<String> onResult(String transcript) {
+		cancelTimer();
+		if (null != running && transcript != null && transcript.equals(text)) {
+			registry.counter("nlu.speculative", "result", "hit").increment();
+			return deliver();
+		}
+		if (null != running) {
+			discard("miss");
+		}
+		if (null == transcript) {
+			return Mono.empty();
+		}
+		start(transcript);
+		return deliver();
+	}
+
+	synchronized void dispose() {
+		cancelTimer();
+		if (null != running) {
+			running.dispose();
+		}
+		delivered.dispose();
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/28
+	 * @desc hand the running dialog over to the caller, speculation starts over for the next sentence
+	 */
+	private Mono<String> deliver() {
+		MonoProcessor<String> delivering = result;
+		delivered.add(running);
+		running = null;
+		result = null;
+		text = null;
+		middle = null;
+		return delivering;
+	}
+
+	private synchronized void speculate(String transcript) {
+		if (transcript.equals(middle) && null == running) {
+			log.info("Speculative NLU: {}", transcript);
+			start(transcript);
+		}
+	}
+
+	private void start(String transcript) {
+		text = transcript;
+		result = MonoProcessor.create();
+		running = dialog.apply(transcript).subscribe(result::onNext, result::onError, result::onComplete);
+	}
+
+	private void discard(String reason) {
+		registry.counter("nlu.speculative", "result", reason).increment();
+		running.dispose();
+		// nobody should wait for a discarded dialog, complete it empty if somebody does
+		result.onComplete();
+		running = null;
+		result = null;
+		text = null;
+	}
+
+	private void cancelTimer() {
+		if (null != timer) {
+			timer.dispose();
+			timer = null;
+		}
+	}
+}
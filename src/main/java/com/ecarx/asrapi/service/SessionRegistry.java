@@ -0,0 +1,149 @@
+package com.ecarx.asrapi.service;
+
+import com.ecarx.asrapi.configs.ASRConfig;
+import com.ecarx.asrapi.domain.ASRSession;
+import com.ecarx.asrapi.executor.ExecutionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author ITACHY
+ * @date 2018/11/22
+ * @desc correlates up and down calls by session id, records per-stage latency and reaps
+ * sessions which are idle or too old
+ */
+@Slf4j
+@Service
+public class SessionRegistry {
+
+	public static final String OUTCOME_OK = "ok";
+
+	public static final String OUTCOME_ERROR = "error";
+
+	public static final String OUTCOME_TIMEOUT = "timeout";
+
+	public static final String OUTCOME_CANCEL = "cancel";
+
+	public static final String OUTCOME_REAPED = "reaped";
+
+	private final ConcurrentMap<String, ASRSession> sessions = new ConcurrentHashMap<>();
+
+	private final ASRConfig config;
+
+	private final MeterRegistry registry;
+
+	public SessionRegistry(final ASRConfig config, final ExecutionService executionService,
+			final MeterRegistry registry) {
+		this.config = config;
+		this.registry = registry;
+
+		registry.gaugeMapSize("asr.sessions.live", Collections.emptyList(), sessions);
+		long interval = config.getReapInterval();
+		executionService.scheduler().scheduleWithFixedDelay(this::reap, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/22
+	 * @desc get or create the session, every acquire must be paired with a release
+	 */
+	public ASRSession acquire(String id, String endpoint) {
+		return sessions.compute(id, (key, session) -> {
+			if (null == session || session.isClosed()) {
+				session = new ASRSession(id, endpoint);
+			}
+			session.retain();
+			session.touch();
+			return session;
+		});
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/30
+	 * @desc keep an acquired session open for another holder, e.g. the upstream call
+	 */
+	public void retain(ASRSession session) {
+		session.retain();
+		session.touch();
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/22
+	 * @desc the session is closed once its last holder released it
+	 */
+	public void release(ASRSession session) {
+		if (session.release() <= 0) {
+			sessions.remove(session.getId(), session);
+			session.close();
+		}
+	}
+
+	public Collection<ASRSession> sessions() {
+		return Collections.unmodifiableCollection(sessions.values());
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/30
+	 * @desc close the session and release its up and down streams
+	 */
+	public boolean close(String id) {
+		ASRSession session = sessions.remove(id);
+		return null != session && session.close();
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/22
+	 * @desc record latency from the first up frame to every reached stage
+	 */
+	public void complete(ASRSession session, String outcome) {
+		for (ASRSession.Stage stage : ASRSession.Stage.values()) {
+			long elapsed = session.elapsed(stage);
+			if (ASRSession.Stage.UP_RECEIVED == stage || elapsed < 0) {
+				continue;
+			}
+			Timer.builder("asr.session.latency")
+					.description("latency from the first up frame to the stage")
+					.tag("stage", stage.name().toLowerCase(Locale.ROOT))
+					.tag("endpoint", session.getEndpoint())
+					.tag("outcome", outcome)
+					.publishPercentiles(0.5, 0.9, 0.99, 0.999)
+					.publishPercentileHistogram()
+					.register(registry)
+					.record(elapsed, TimeUnit.NANOSECONDS);
+		}
+		log.info("Session {} finished, outcome: {}, result: {} ms", session.getId(), outcome,
+				TimeUnit.NANOSECONDS.toMillis(session.elapsed(ASRSession.Stage.RESULT)));
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/11/22
+	 * @desc close sessions which are idle or too old, runs on the housekeeping scheduler
+	 */
+	void reap() {
+		long now = System.currentTimeMillis();
+		for (ASRSession session : sessions.values()) {
+			boolean idle    = now - session.getLastActivity() > config.getSessionIdle();
+			boolean expired = now - session.getCreatedAt() > config.getSessionMaxAge();
+			if ((idle || expired) && sessions.remove(session.getId(), session) && session.close()) {
+				log.warn("Reap {} session {}, state: {}", idle ? "idle" : "expired", session.getId(),
+						session.getState());
+				registry.counter("asr.sessions.reaped", "state",
+						session.getState().name().toLowerCase(Locale.ROOT)).increment();
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.ecarx.asrapi.service;
+
+import com.ecarx.asrapi.domain.ASRSession;
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.google.protobuf.nano.MessageNano;
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/12
+ * @desc streamed body of an upstream /up call, frames are written as they leave the session's
+ * buffer. Consecutive DATA frames are coalesced into one flush until the window closes or the
+ * coalesce-bytes are pending, any other frame is flushed at once, and so is whatever is pending
+ * when no frame arrives before the window closes. A window of 0 flushes every frame.
+ */
+@Slf4j
+class UpstreamBody extends RequestBody {
+
+	private final ASRSession session;
+
+	private final UpstreamBuffer requests;
+
+	private final long timeout;
+
+	private final long window;
+
+	private final int coalesceBytes;
+
+	private final Counter flushes;
+
+	UpstreamBody(ASRSession session, UpstreamBuffer requests, long timeout, long window, int coalesceBytes,
+			Counter flushes) {
+		this.session = session;
+		this.requests = requests;
+		this.timeout = timeout;
+		this.window = window;
+		this.coalesceBytes = coalesceBytes;
+		this.flushes = flushes;
+	}
+
+	@Nullable
+	@Override
+	public MediaType contentType() {
+		return null;
+	}
+
+	@Override
+	public void writeTo(BufferedSink sink) {
+		long    deadline = 0;
+		int     pending  = 0;
+		boolean data     = false;
+		// frames are serialized into one array per stream and recycled once written
+		byte[] scratch = new byte[4096];
+		try {
+			ASR.APIRequest request = requests.poll(timeout, TimeUnit.MILLISECONDS);
+			while (null != request) {
+				int type = request.apiReqType;
+				int size = request.getSerializedSize();
+				if (scratch.length < size) {
+					scratch = new byte[size];
+				}
+				MessageNano.toByteArray(request, scratch, 0, size);
+				requests.recycle(request);
+				sink.writeIntLe(size);
+				sink.write(scratch, 0, size);
+				if (0 == pending) {
+					deadline = System.currentTimeMillis() + window;
+				}
+				pending += size + 4;
+				data |= ASR.API_REQ_TYPE_DATA == type;
+				session.touch();
+				if (ASR.API_REQ_TYPE_DATA != type || pending >= coalesceBytes
+						|| System.currentTimeMillis() >= deadline) {
+					flush(sink, data);
+					pending = 0;
+					data = false;
+				}
+				if (ASR.API_REQ_TYPE_LAST == type || ASR.API_REQ_TYPE_CANCEL == type) {
+					if (ASR.API_REQ_TYPE_LAST == type) {
+						session.advance(ASRSession.State.LAST_SENT);
+					}
+					break;
+				}
+				if (0 == pending) {
+					request = requests.poll(timeout, TimeUnit.MILLISECONDS);
+					continue;
+				}
+				// wait for the next frame only until the window closes
+				request = requests.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				if (null == request) {
+					flush(sink, data);
+					pending = 0;
+					data = false;
+					request = requests.poll(timeout, TimeUnit.MILLISECONDS);
+				}
+			}
+		} catch (Exception e) {
+			log.error("Build ASR-Request body failed, error msg: ", e);
+		}
+	}
+
+	private void flush(BufferedSink sink, boolean data) throws IOException {
+		sink.flush();
+		session.mark(ASRSession.Stage.UPSTREAM_WRITTEN);
+		if (data) {
+			session.mark(ASRSession.Stage.DATA_WRITTEN);
+		}
+		flushes.increment();
+	}
+}
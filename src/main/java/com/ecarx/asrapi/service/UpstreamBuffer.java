@@ -0,0 +1,114 @@
+package com.ecarx.asrapi.service;
+
+import com.ecarx.asrapi.codec.RequestPool;
+import com.ecarx.asrapi.dto.nano.ASR;
+import io.micrometer.core.instrument.Counter;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/3
+ * @desc frames of one session on their way from the client body to the upstream request body.
+ * Demand for more client buffers is paused once the high-water mark is reached and resumed when
+ * the upstream writer has drained half of it, so a slow upstream slows the client down instead of
+ * growing the heap. One client buffer may still overshoot the mark by the frames it carries.
+ */
+public class UpstreamBuffer {
+
+	private final LinkedBlockingQueue<ASR.APIRequest> frames = new LinkedBlockingQueue<>();
+
+	private final AtomicBoolean paused = new AtomicBoolean();
+
+	private final int highWater;
+
+	private final int lowWater;
+
+	private final Counter overflow;
+
+	private final RequestPool pool;
+
+	private volatile Runnable demand = () -> {
+	};
+
+	public UpstreamBuffer(int highWater, Counter overflow) {
+		this.highWater = highWater;
+		this.lowWater = highWater / 2;
+		this.overflow = overflow;
+		// frames queued, plus those of one client buffer and the one being written
+		this.pool = new RequestPool(2 * highWater);
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/11
+	 * @desc pool the frames of this session are decoded into
+	 */
+	public RequestPool pool() {
+		return pool;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/11
+	 * @desc give back a frame once it is written upstream
+	 */
+	public void recycle(ASR.APIRequest frame) {
+		pool.recycle(frame);
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/3
+	 * @desc called with the request for the next client buffer whenever demand resumes
+	 */
+	public void onDemand(Runnable demand) {
+		this.demand = demand;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/3
+	 * @desc queue a frame, never blocks. The frame is owned by the upstream writer from now on
+	 */
+	public void offer(ASR.APIRequest frame) {
+		frames.offer(frame);
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/3
+	 * @desc ask for the next client buffer unless the high-water mark is reached, in which case
+	 * the upstream writer asks for it once it has drained the buffer
+	 */
+	public void request() {
+		if (frames.size() >= highWater) {
+			overflow.increment();
+			paused.set(true);
+			// the writer may have drained everything before it could see the pause
+			if (frames.size() > lowWater || !paused.compareAndSet(true, false)) {
+				return;
+			}
+		}
+		demand.run();
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/3
+	 * @desc take the next frame for the upstream, null when none arrived in time
+	 */
+	public ASR.APIRequest poll(long timeout, TimeUnit unit) throws InterruptedException {
+		ASR.APIRequest frame = frames.poll(timeout, unit);
+		if (frames.size() <= lowWater && paused.compareAndSet(true, false)) {
+			demand.run();
+		}
+		return frame;
+	}
+
+	public int size() {
+		return frames.size();
+	}
+}
@@ -0,0 +1,127 @@
+package com.ecarx.asrapi.service;
+
+import com.ecarx.asrapi.configs.WarmUpConfig;
+import com.ecarx.asrapi.executor.ExecutionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/15
+ * @desc warm up the asr and NLU connections while the context starts, the web server is only
+ * started afterwards, so the first sessions after a deploy or scale-out don't pay connection setup.
+ * Connections are probed again periodically, keeping them in the pool while traffic is low.
+ */
+@Slf4j
+@Service
+public class WarmUpService implements SmartLifecycle {
+
+	private final WarmUpConfig config;
+
+	private final HttpService httpService;
+
+	private final NLUService nluService;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final MeterRegistry registry;
+
+	private volatile boolean warm;
+
+	private volatile ScheduledFuture<?> probes;
+
+	private volatile long ready;
+
+	public WarmUpService(final WarmUpConfig config, final HttpService httpService, final NLUService nluService,
+			final ExecutionService executionService, final MeterRegistry registry) {
+
+		this.config = config;
+		this.httpService = httpService;
+		this.nluService = nluService;
+		this.scheduler = executionService.scheduler();
+		this.registry = registry;
+	}
+
+	@Override
+	public void start() {
+		if (!config.getEnabled()) {
+			warm = true;
+			return;
+		}
+		int connections = config.getConnections();
+		try {
+			Mono.when(warmUp("asr", httpService.warmUp(connections)), warmUp("nlu", nluService.warmUp(connections)))
+					.block(Duration.ofMillis(config.getTimeout()));
+		} catch (RuntimeException e) {
+			log.warn("Warm up unfinished after {} ms, start anyway: {}", config.getTimeout(), e.toString());
+		}
+		warm = true;
+		long interval = config.getProbeInterval();
+		probes = scheduler.scheduleWithFixedDelay(this::probe, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void stop() {
+		ScheduledFuture<?> future = probes;
+		if (null != future) {
+			future.cancel(false);
+		}
+		probes = null;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return null != probes;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/15
+	 * @desc true once the warm-up is over, whether or not every connection could be opened
+	 */
+	public boolean isWarm() {
+		return warm;
+	}
+
+	/**
+	 * @author ITACHY
+	 * @date 2018/12/15
+	 * @desc time from jvm start until the application serves requests
+	 */
+	@EventListener
+	public void onReady(ApplicationReadyEvent event) {
+		ready = event.getTimestamp() - ManagementFactory.getRuntimeMXBean().getStartTime();
+		TimeGauge.builder("app.startup.ready", this, TimeUnit.MILLISECONDS, service -> service.ready)
+				.description("time from jvm start until ready")
+				.register(registry);
+		log.info("Ready {} ms after jvm start", ready);
+	}
+
+	private Mono<Integer> warmUp(String backend, Mono<Integer> warmUp) {
+		Timer timer = Timer.builder("upstream.warmup").tag("backend", backend).register(registry);
+		long  start = System.nanoTime();
+		return warmUp.doOnNext(count -> {
+			timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			log.info("Warmed up {} with {} connections", backend, count);
+		});
+	}
+
+	private void probe() {
+		int connections = config.getConnections();
+		httpService.warmUp(connections).subscribe();
+		nluService.warmUp(connections).subscribe();
+	}
+}
@@ -0,0 +1,134 @@
+package com.ecarx.asrapi.audio;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SilenceFilterTest {
+
+	// 20 ms of 16 kHz pcm
+	private static final int FRAME = 20 * VoiceActivityDetector.BYTES_PER_MILLI;
+
+	private final VoiceActivityDetector detector = new VoiceActivityDetector(400, 0.25);
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final Counter dropped = registry.counter("dropped");
+
+	private final List<ASR.APIRequest> forwarded = new ArrayList<>();
+
+	@Test
+	public void detectSpeech() {
+		assertFalse(detector.isSpeech(pcm(0)));
+		assertFalse(detector.isSpeech(pcm(50)));
+		assertTrue(detector.isSpeech(pcm(3000)));
+	}
+
+	@Test
+	public void dropLeadingSilenceBeforePreRoll() {
+		SilenceFilter filter = filter(40, 1000, 0);
+
+		for (int i = 0; i < 5; i++) {
+			filter.filter(data(0), forwarded::add);
+		}
+		assertTrue(forwarded.isEmpty());
+
+		ASR.APIRequest speech = data(3000);
+		filter.filter(speech, forwarded::add);
+
+		// two silent frames of pre-roll are released in front of the speech
+		assertEquals(3, forwarded.size());
+		assertSame(speech, forwarded.get(2));
+		assertEquals(3, (int) dropped.count());
+	}
+
+	@Test
+	public void endpointAfterTrailingSilence() {
+		SilenceFilter filter = filter(0, 40, 100);
+
+		filter.filter(data(3000), forwarded::add);
+		for (int i = 0; i < 5; i++) {
+			filter.filter(data(0), forwarded::add);
+		}
+
+		// speech, 40 ms of hangover, then LAST after 100 ms of silence
+		assertTrue(filter.isEnded());
+		assertEquals(4, forwarded.size());
+		assertEquals(ASR.API_REQ_TYPE_LAST, forwarded.get(3).apiReqType);
+
+		filter.filter(data(3000), forwarded::add);
+		ASR.APIRequest last = new ASR.APIRequest();
+		last.apiReqType = ASR.API_REQ_TYPE_LAST;
+		filter.filter(last, forwarded::add);
+		assertEquals(4, forwarded.size());
+	}
+
+	@Test
+	public void keepPauseInsideUtterance() {
+		SilenceFilter filter = filter(0, 40, 0);
+
+		filter.filter(data(3000), forwarded::add);
+		for (int i = 0; i < 5; i++) {
+			filter.filter(data(0), forwarded::add);
+		}
+		// speech and 40 ms of hangover, the rest of the pause is held back
+		assertEquals(3, forwarded.size());
+
+		ASR.APIRequest speech = data(3000);
+		filter.filter(speech, forwarded::add);
+
+		assertEquals(7, forwarded.size());
+		assertSame(speech, forwarded.get(6));
+		assertEquals(0, (int) dropped.count());
+	}
+
+	@Test
+	public void dropPauseWhenUtteranceEnds() {
+		SilenceFilter filter = filter(0, 40, 0);
+
+		filter.filter(data(3000), forwarded::add);
+		for (int i = 0; i < 5; i++) {
+			filter.filter(data(0), forwarded::add);
+		}
+		ASR.APIRequest last = new ASR.APIRequest();
+		last.apiReqType = ASR.API_REQ_TYPE_LAST;
+		filter.filter(last, forwarded::add);
+
+		assertEquals(4, forwarded.size());
+		assertSame(last, forwarded.get(3));
+		assertEquals(3, (int) dropped.count());
+	}
+
+	private SilenceFilter filter(long preRoll, long hangover, long endpoint) {
+		return new SilenceFilter(detector, preRoll, hangover, endpoint, dropped, registry.counter("endpointed"));
+	}
+
+	private static ASR.APIRequest data(int amplitude) {
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = ASR.API_REQ_TYPE_DATA;
+		request.data = new ASR.ApiData();
+		request.data.postData = pcm(amplitude);
+		request.data.len = FRAME;
+		return request;
+	}
+
+	// square wave at 400 Hz
+	private static byte[] pcm(int amplitude) {
+		byte[] pcm = new byte[FRAME];
+		for (int i = 0; i < FRAME / 2; i++) {
+			int sample = (i / 20) % 2 == 0 ? amplitude : -amplitude;
+			pcm[2 * i] = (byte) sample;
+			pcm[2 * i + 1] = (byte) (sample >> 8);
+		}
+		return pcm;
+	}
+}
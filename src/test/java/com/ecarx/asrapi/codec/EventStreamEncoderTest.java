@@ -0,0 +1,68 @@
+package com.ecarx.asrapi.codec;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventStreamEncoderTest {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Test
+	public void encodeEvent() throws Exception {
+		ASR.APIResponse response = new ASR.APIResponse();
+		response.type = ASR.API_RESP_TYPE_MIDDLE;
+		response.id = "id-1";
+		response.errNo = -3001;
+		response.result = new ASR.ASRResult();
+		response.result.word = new String[]{"导航到\"东站\"", "a\\b\n\t\u0001", "🚗"};
+
+		String event = encode(response, false);
+
+		assertTrue(event.startsWith("data:"));
+		assertTrue(event.endsWith("}\n\n"));
+		JsonNode json = objectMapper.readTree(event.substring(5));
+		assertEquals(ASR.API_RESP_TYPE_MIDDLE, json.get("type").asInt());
+		assertEquals("id-1", json.get("id").asText());
+		assertEquals(-3001, json.get("errNo").asInt());
+		assertEquals("", json.get("errMsg").asText());
+		for (int i = 0; i < response.result.word.length; i++) {
+			assertEquals(response.result.word[i], json.get("result").get("word").get(i).asText());
+		}
+		assertEquals(0, json.get("result").get("uncertainWord").size());
+		assertTrue(json.get("last").isNull());
+	}
+
+	@Test
+	public void encodeWithoutResult() throws Exception {
+		ASR.APIResponse response = new ASR.APIResponse();
+		response.type = ASR.API_RESP_TYPE_LAST;
+		response.id = null;
+		response.last = new ASR.ApiLast();
+
+		JsonNode json = objectMapper.readTree(encode(response, true).substring(5));
+
+		assertTrue(json.get("id").isNull());
+		assertTrue(json.get("result").isNull());
+		assertTrue(json.get("last").isObject());
+		assertEquals(0, json.get("last").size());
+	}
+
+	private static String encode(ASR.APIResponse response, boolean direct) {
+		DataBuffer buffer = EventStreamEncoder.encode(response, new DefaultDataBufferFactory(direct));
+		try {
+			return StandardCharsets.UTF_8.decode(buffer.asByteBuffer()).toString();
+		} finally {
+			DataBufferUtils.release(buffer);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.ecarx.asrapi.codec;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.google.protobuf.nano.InvalidProtocolBufferNanoException;
+import com.google.protobuf.nano.MessageNano;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameDecoderTest {
+
+	private static final DefaultDataBufferFactory HEAP = new DefaultDataBufferFactory();
+
+	private static final DefaultDataBufferFactory DIRECT = new DefaultDataBufferFactory(true);
+
+	private final FrameDecoder<ASR.APIRequest> decoder = new FrameDecoder<>(ASR.APIRequest::new, 1024);
+
+	@Test
+	public void decodeSingleFrame() throws Exception {
+		byte[] frame = frame(data(new byte[]{1, 2, 3}));
+
+		List<ASR.APIRequest> requests = decoder.decode(HEAP.wrap(frame));
+
+		assertEquals(1, requests.size());
+		assertEquals(ASR.API_REQ_TYPE_DATA, requests.get(0).apiReqType);
+		assertArrayEquals(new byte[]{1, 2, 3}, requests.get(0).data.postData);
+		assertTrue(decoder.isEmpty());
+	}
+
+	@Test
+	public void decodeSplitFrame() throws Exception {
+		byte[] frame = frame(data(new byte[]{4, 5, 6, 7}));
+
+		// split inside the header and inside the body
+		assertTrue(decoder.decode(HEAP.wrap(slice(frame, 0, 2))).isEmpty());
+		assertTrue(decoder.decode(DIRECT.allocateBuffer().write(slice(frame, 2, 7))).isEmpty());
+		List<ASR.APIRequest> requests = decoder.decode(HEAP.wrap(slice(frame, 7, frame.length)));
+
+		assertEquals(1, requests.size());
+		assertArrayEquals(new byte[]{4, 5, 6, 7}, requests.get(0).data.postData);
+		assertTrue(decoder.isEmpty());
+	}
+
+	@Test
+	public void decodeCoalescedFrames() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		os.write(frame(param()));
+		os.write(frame(data(new byte[]{8, 9})));
+		os.write(frame(last()));
+		byte[] frames = os.toByteArray();
+
+		// last frame is only half available in the first buffer
+		List<ASR.APIRequest> requests = decoder.decode(HEAP.wrap(slice(frames, 0, frames.length - 3)));
+		assertEquals(2, requests.size());
+		assertEquals(ASR.API_REQ_TYPE_PARAM, requests.get(0).apiReqType);
+		assertEquals("cuid", requests.get(0).param.cuid);
+		assertEquals(ASR.API_REQ_TYPE_DATA, requests.get(1).apiReqType);
+
+		requests = decoder.decode(HEAP.wrap(slice(frames, frames.length - 3, frames.length)));
+		assertEquals(1, requests.size());
+		assertEquals(ASR.API_REQ_TYPE_LAST, requests.get(0).apiReqType);
+	}
+
+	@Test
+	public void decodeDirectBuffer() throws Exception {
+		DataBuffer buffer = DIRECT.allocateBuffer();
+		buffer.write(frame(data(new byte[]{10})));
+		buffer.write(frame(last()));
+
+		List<ASR.APIRequest> requests = decoder.decode(buffer);
+
+		assertEquals(2, requests.size());
+		assertArrayEquals(new byte[]{10}, requests.get(0).data.postData);
+		assertEquals(0, buffer.readableByteCount());
+	}
+
+	@Test(expected = InvalidProtocolBufferNanoException.class)
+	public void rejectOversizedFrame() throws Exception {
+		decoder.decode(HEAP.wrap(frame(data(new byte[2048]))));
+	}
+
+	@Test(expected = InvalidProtocolBufferNanoException.class)
+	public void rejectNegativeLength() throws Exception {
+		decoder.decode(HEAP.wrap(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}));
+	}
+
+	static ASR.APIRequest param() {
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = ASR.API_REQ_TYPE_PARAM;
+		request.param = new ASR.ApiParam();
+		request.param.cuid = "cuid";
+		request.param.sampleRate = 16000;
+		request.param.format = "pcm";
+		return request;
+	}
+
+	static ASR.APIRequest data(byte[] pcm) {
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = ASR.API_REQ_TYPE_DATA;
+		request.data = new ASR.ApiData();
+		request.data.len = pcm.length;
+		request.data.postData = pcm;
+		return request;
+	}
+
+	static ASR.APIRequest last() {
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = ASR.API_REQ_TYPE_LAST;
+		request.last = new ASR.ApiLast();
+		return request;
+	}
+
+	static byte[] frame(MessageNano message) {
+		byte[] body  = MessageNano.toByteArray(message);
+		byte[] frame = new byte[body.length + 4];
+		frame[0] = (byte) body.length;
+		frame[1] = (byte) (body.length >>> 8);
+		frame[2] = (byte) (body.length >>> 16);
+		frame[3] = (byte) (body.length >>> 24);
+		System.arraycopy(body, 0, frame, 4, body.length);
+		return frame;
+	}
+
+	private static byte[] slice(byte[] bytes, int from, int to) {
+		byte[] slice = new byte[to - from];
+		System.arraycopy(bytes, from, slice, 0, slice.length);
+		return slice;
+	}
+}
@@ -0,0 +1,53 @@
+package com.ecarx.asrapi.codec;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameEncoderTest {
+
+	private final FrameDecoder<ASR.APIResponse> decoder = new FrameDecoder<>(ASR.APIResponse::new, 1024);
+
+	@Test
+	public void encodeHeapBuffer() throws Exception {
+		roundTrip(new DefaultDataBufferFactory());
+	}
+
+	@Test
+	public void encodeDirectBuffer() throws Exception {
+		roundTrip(new DefaultDataBufferFactory(true));
+	}
+
+	@Test
+	public void encodePooledBuffer() throws Exception {
+		roundTrip(new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT));
+	}
+
+	private void roundTrip(DataBufferFactory factory) throws Exception {
+		ASR.APIResponse response = new ASR.APIResponse();
+		response.type = ASR.API_RESP_TYPE_RES;
+		response.result = new ASR.ASRResult();
+		response.result.word = new String[]{"打开", "空调"};
+
+		DataBuffer buffer = FrameEncoder.encode(response, factory);
+		try {
+			assertEquals(FrameDecoder.HEADER_SIZE + response.getSerializedSize(), buffer.readableByteCount());
+			List<ASR.APIResponse> responses = decoder.decode(buffer);
+			assertEquals(1, responses.size());
+			assertEquals(ASR.API_RESP_TYPE_RES, responses.get(0).type);
+			assertArrayEquals(response.result.word, responses.get(0).result.word);
+		} finally {
+			DataBufferUtils.release(buffer);
+		}
+	}
+}
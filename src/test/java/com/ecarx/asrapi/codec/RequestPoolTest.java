@@ -0,0 +1,65 @@
+package com.ecarx.asrapi.codec;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.google.protobuf.nano.MessageNano;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static com.ecarx.asrapi.codec.FrameDecoderTest.data;
+import static com.ecarx.asrapi.codec.FrameDecoderTest.frame;
+import static com.ecarx.asrapi.codec.FrameDecoderTest.last;
+import static com.ecarx.asrapi.codec.FrameDecoderTest.param;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RequestPoolTest {
+
+	private final RequestPool pool = new RequestPool(4);
+
+	private final FrameDecoder<ASR.APIRequest> decoder = new FrameDecoder<>(pool::acquire, pool::settle, 1024);
+
+	@Test
+	public void reuseRecycledFrames() throws Exception {
+		ASR.APIRequest first = decode(data(new byte[]{1, 2})).get(0);
+		ASR.ApiData    data  = first.data;
+		pool.recycle(first);
+
+		ASR.APIRequest second = decode(data(new byte[]{3})).get(0);
+
+		assertSame(first, second);
+		assertSame(data, second.data);
+		assertArrayEquals(new byte[]{3}, second.data.postData);
+	}
+
+	@Test
+	public void detachSpareDataFromOtherFrames() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		os.write(frame(param()));
+		os.write(frame(last()));
+
+		List<ASR.APIRequest> requests = decode(os.toByteArray());
+
+		// pooled frames serialize exactly like fresh ones
+		assertNull(requests.get(0).data);
+		assertNull(requests.get(1).data);
+		assertArrayEquals(MessageNano.toByteArray(param()), MessageNano.toByteArray(requests.get(0)));
+		assertArrayEquals(MessageNano.toByteArray(last()), MessageNano.toByteArray(requests.get(1)));
+
+		pool.recycle(requests.get(0));
+		ASR.APIRequest data = decode(data(new byte[]{4})).get(0);
+		assertSame(requests.get(0), data);
+		assertNull(data.param);
+	}
+
+	private List<ASR.APIRequest> decode(ASR.APIRequest request) throws Exception {
+		return decode(frame(request));
+	}
+
+	private List<ASR.APIRequest> decode(byte[] frames) throws Exception {
+		return decoder.decode(new DefaultDataBufferFactory().wrap(frames));
+	}
+}
@@ -0,0 +1,116 @@
+package com.ecarx.asrapi.domain;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.google.protobuf.nano.MessageNano;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ASRResponseTest {
+
+	@Test
+	public void decodeFragmentedBody() {
+		Buffer body = new Buffer();
+		for (int type : new int[]{ASR.API_RESP_TYPE_MIDDLE, ASR.API_RESP_TYPE_RES, ASR.API_RESP_TYPE_LAST}) {
+			write(body, type);
+		}
+		long size = body.size();
+
+		// every read returns at most 3 bytes, so headers and bodies are split
+		List<ASR.APIResponse> responses = Flux.<ASR.APIResponse>create(sink -> {
+			try (ASRResponse response = new ASRResponse(ResponseBody.create(null, size, Okio.buffer(trickle(body))),
+					sink, 1024)) {
+				response.drain();
+				sink.complete();
+			} catch (IOException e) {
+				sink.error(e);
+			}
+		}).collectList().block(Duration.ofSeconds(5));
+
+		assertEquals(3, responses.size());
+		assertEquals(ASR.API_RESP_TYPE_MIDDLE, responses.get(0).type);
+		assertEquals(ASR.API_RESP_TYPE_RES, responses.get(1).type);
+		assertEquals(ASR.API_RESP_TYPE_LAST, responses.get(2).type);
+		assertEquals("导航", responses.get(2).result.word[0]);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectTruncatedBody() throws Throwable {
+		Buffer body = new Buffer();
+		write(body, ASR.API_RESP_TYPE_LAST);
+		Buffer truncated = new Buffer();
+		body.copyTo(truncated, 0, body.size() - 1);
+
+		try {
+			Flux.<ASR.APIResponse>create(sink -> {
+				try (ASRResponse response = new ASRResponse(ResponseBody.create(null, -1, truncated), sink, 1024)) {
+					response.drain();
+					sink.complete();
+				} catch (IOException e) {
+					sink.error(e);
+				}
+			}).blockLast(Duration.ofSeconds(5));
+		} catch (RuntimeException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Test
+	public void readOnlyWithDemand() {
+		Buffer body = new Buffer();
+		for (int i = 0; i < 50; i++) {
+			write(body, ASR.API_RESP_TYPE_MIDDLE);
+		}
+		AtomicInteger reads = new AtomicInteger();
+		Source        slow  = new ForwardingSource(trickle(body)) {
+			@Override
+			public long read(Buffer sink, long byteCount) throws IOException {
+				reads.incrementAndGet();
+				return super.read(sink, byteCount);
+			}
+		};
+
+		// the first frame needs a handful of reads, nothing more is read once it is taken
+		ASR.APIResponse first = Flux.<ASR.APIResponse>create(sink -> {
+			try (ASRResponse response = new ASRResponse(ResponseBody.create(null, -1, Okio.buffer(slow)), sink, 1024)) {
+				response.drain();
+			} catch (IOException e) {
+				sink.error(e);
+			}
+		}).limitRate(1).blockFirst(Duration.ofSeconds(5));
+
+		assertEquals(ASR.API_RESP_TYPE_MIDDLE, first.type);
+		assertTrue(reads.get() < 50 * 4);
+	}
+
+	private static void write(Buffer body, int type) {
+		ASR.APIResponse response = new ASR.APIResponse();
+		response.type = type;
+		response.result = new ASR.ASRResult();
+		response.result.word = new String[]{"导航"};
+		byte[] bytes = MessageNano.toByteArray(response);
+		body.writeIntLe(bytes.length);
+		body.write(bytes);
+	}
+
+	private static Source trickle(Buffer body) {
+		return new ForwardingSource(body) {
+			@Override
+			public long read(Buffer sink, long byteCount) throws IOException {
+				return super.read(sink, Math.min(3, byteCount));
+			}
+		};
+	}
+}
@@ -0,0 +1,69 @@
+package com.ecarx.asrapi.executor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VirtualBulkheadTest {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	// virtual threads need java 21, the bulkhead works with any factory
+	private final ThreadFactory threadFactory = VirtualThreads.isSupported() ? VirtualThreads.factory("test-")
+			: Thread::new;
+
+	private final VirtualBulkhead bulkhead = new VirtualBulkhead("test", 2, threadFactory, registry);
+
+	@Test
+	public void boundsRunningTasks() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(2);
+		for (int i = 0; i < 2; i++) {
+			bulkhead.execute(() -> {
+				started.countDown();
+				await(release);
+			});
+		}
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+		try {
+			bulkhead.execute(() -> {
+			});
+			fail("third task must be rejected");
+		} catch (RejectedExecutionException e) {
+			assertEquals(1, registry.counter("executor.rejected", "name", "test").count(), 0);
+		}
+		assertEquals(2, bulkhead.getPoolSize());
+
+		release.countDown();
+		bulkhead.shutdown();
+		assertTrue(bulkhead.awaitTermination(1, TimeUnit.SECONDS));
+		assertEquals(0, bulkhead.getPoolSize());
+		assertEquals(2, bulkhead.getLargestPoolSize());
+	}
+
+	@Test
+	public void permitsAreReturned() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			bulkhead.submit(() -> {
+			}).get(1, TimeUnit.SECONDS);
+		}
+		assertEquals(0, registry.counter("executor.rejected", "name", "test").count(), 0);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
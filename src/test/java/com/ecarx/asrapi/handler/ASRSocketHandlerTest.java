@@ -0,0 +1,153 @@
+package com.ecarx.asrapi.handler;
+
+import com.ecarx.asrapi.codec.FrameDecoder;
+import com.ecarx.asrapi.codec.FrameEncoder;
+import com.ecarx.asrapi.configs.ASRConfig;
+import com.ecarx.asrapi.domain.ASRSession;
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.ecarx.asrapi.service.ASRService;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.socket.HandshakeInfo;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ASRSocketHandlerTest {
+
+	private final DataBufferFactory factory = new DefaultDataBufferFactory();
+
+	private final ASRService asrService = mock(ASRService.class);
+
+	private final WebSocketSession socket = mock(WebSocketSession.class);
+
+	private final List<String> utterances = new CopyOnWriteArrayList<>();
+
+	private final List<ASR.APIResponse> sent = new CopyOnWriteArrayList<>();
+
+	private ASRSocketHandler handler;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		ASRConfig config = new ASRConfig();
+		config.setMaxFrameSize(1024);
+		handler = new ASRSocketHandler(asrService, config);
+
+		when(socket.getHandshakeInfo()).thenReturn(new HandshakeInfo(URI.create("wss://localhost/ws/asr?id=car"),
+				new HttpHeaders(), Mono.empty(), null));
+		when(socket.binaryMessage(any())).thenAnswer(invocation -> new WebSocketMessage(WebSocketMessage.Type.BINARY,
+				((Function<DataBufferFactory, DataBuffer>) invocation.getArgument(0)).apply(factory)));
+		when(socket.send(any())).thenAnswer(invocation -> {
+			FrameDecoder<ASR.APIResponse> decoder = new FrameDecoder<>(ASR.APIResponse::new, 1024);
+			Publisher<WebSocketMessage>   body    = invocation.getArgument(0);
+			return Flux.from(body).doOnNext(message -> {
+				try {
+					sent.addAll(decoder.decode(message.getPayload()));
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}).then();
+		});
+		when(socket.close(any())).thenReturn(Mono.empty());
+		// every utterance of the socket logs in to NLU as the device
+		when(asrService.handleASRDown(anyString(), eq("car"), eq(ASRSession.ENDPOINT_WS), any()))
+				.thenAnswer(invocation -> {
+					Function<Flux<ASR.APIResponse>, Mono<Void>> writer = invocation.getArgument(3);
+					return writer.apply(Flux.just(response(ASR.API_RESP_TYPE_RES), response(ASR.API_RESP_TYPE_LAST))
+							.delaySubscription(Duration.ofMillis(10)));
+				});
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void utterancesShareOneSocket() {
+		when(asrService.handleASRUp(anyString(), eq(ASRSession.ENDPOINT_WS), anyBoolean(), any(Publisher.class)))
+				.thenAnswer(invocation -> {
+					utterances.add(invocation.getArgument(0));
+					Publisher<ASR.APIRequest> body = invocation.getArgument(3);
+					return Flux.from(body).then(Mono.just("ok"));
+				});
+		// the second utterance starts inside the message which ends the first one, and is split
+		byte[] first  = frames(ASR.API_REQ_TYPE_PARAM, ASR.API_REQ_TYPE_DATA, ASR.API_REQ_TYPE_LAST);
+		byte[] second = frames(ASR.API_REQ_TYPE_PARAM, ASR.API_REQ_TYPE_LAST);
+		byte[] joined = Arrays.copyOf(first, first.length + 3);
+		System.arraycopy(second, 0, joined, first.length, 3);
+		when(socket.receive()).thenReturn(Flux.just(message(joined),
+				message(Arrays.copyOfRange(second, 3, second.length))));
+
+		handler.handle(socket).block(Duration.ofSeconds(5));
+
+		assertEquals(Arrays.asList("car-1", "car-2"), utterances);
+		List<Integer> types = new ArrayList<>();
+		sent.forEach(response -> types.add(response.type));
+		assertEquals(Arrays.asList(ASR.API_RESP_TYPE_RES, ASR.API_RESP_TYPE_LAST, ASR.API_RESP_TYPE_RES,
+				ASR.API_RESP_TYPE_LAST), types);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void saturatedClosesSocket() {
+		when(asrService.handleASRUp(anyString(), eq(ASRSession.ENDPOINT_WS), anyBoolean(), any(Publisher.class)))
+				.thenReturn(Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "saturated")));
+		when(socket.receive()).thenReturn(Flux.just(message(frames(ASR.API_REQ_TYPE_PARAM))));
+
+		handler.handle(socket).block(Duration.ofSeconds(5));
+
+		verify(socket).close(argThat(status -> 1013 == status.getCode()));
+	}
+
+	private WebSocketMessage message(byte[] bytes) {
+		return new WebSocketMessage(WebSocketMessage.Type.BINARY, factory.wrap(bytes));
+	}
+
+	private byte[] frames(int... types) {
+		List<Byte> bytes = new ArrayList<>();
+		for (int type : types) {
+			ASR.APIRequest request = new ASR.APIRequest();
+			request.apiReqType = type;
+			DataBuffer buffer = FrameEncoder.encode(request, factory);
+			while (buffer.readableByteCount() > 0) {
+				bytes.add(buffer.read());
+			}
+		}
+		byte[] array = new byte[bytes.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = bytes.get(i);
+		}
+		return array;
+	}
+
+	private static ASR.APIResponse response(int type) {
+		ASR.APIResponse response = new ASR.APIResponse();
+		response.type = type;
+		response.id = "car";
+		return response;
+	}
+}
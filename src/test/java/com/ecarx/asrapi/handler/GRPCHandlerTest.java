@@ -0,0 +1,159 @@
+package com.ecarx.asrapi.handler;
+
+import com.ecarx.asrapi.domain.ASRSession;
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.ecarx.asrapi.service.ASRService;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GRPCHandlerTest {
+
+	private final ASRService asrService = mock(ASRService.class);
+
+	private final List<Integer> received = new CopyOnWriteArrayList<>();
+
+	// like the asr backend, the down side ends only after LAST was sent up
+	private final MonoProcessor<Void> last = MonoProcessor.create();
+
+	private Server server;
+
+	private ManagedChannel channel;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		when(asrService.handleASRDown(eq("session-1"), eq(ASRSession.ENDPOINT_GRPC), any())).thenAnswer(invocation -> {
+			Function<Flux<ASR.APIResponse>, Mono<Void>> writer = invocation.getArgument(2);
+			return writer.apply(Flux.just(response(ASR.API_RESP_TYPE_MIDDLE), response(ASR.API_RESP_TYPE_RES),
+					response(ASR.API_RESP_TYPE_LAST)).delaySubscription(last));
+		});
+		String name = InProcessServerBuilder.generateName();
+		server = InProcessServerBuilder.forName(name).directExecutor()
+				.addService(new GRPCHandler(asrService)).build().start();
+		channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+	}
+
+	@After
+	public void tearDown() {
+		channel.shutdownNow();
+		server.shutdownNow();
+	}
+
+	@Test
+	public void recognizeOnOneStream() throws Exception {
+		when(asrService.handleASRUp(eq("session-1"), eq(ASRSession.ENDPOINT_GRPC), anyBoolean(),
+				any(Publisher.class))).thenAnswer(invocation -> {
+			Publisher<ASR.APIRequest> body = invocation.getArgument(3);
+			return Flux.from(body).doOnNext(request -> received.add(request.apiReqType))
+					.takeUntil(request -> ASR.API_REQ_TYPE_LAST == request.apiReqType).doOnComplete(last::onComplete)
+					.then(Mono.just("ok"));
+		});
+
+		Recorder                       recorder = new Recorder();
+		StreamObserver<ASR.APIRequest> requests = call(recorder);
+		requests.onNext(request(ASR.API_REQ_TYPE_PARAM));
+		requests.onNext(request(ASR.API_REQ_TYPE_DATA));
+		requests.onNext(request(ASR.API_REQ_TYPE_LAST));
+		requests.onCompleted();
+
+		assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+		assertNull(recorder.error.get());
+		assertEquals(3, received.size());
+		assertEquals(ASR.API_REQ_TYPE_LAST, (int) received.get(2));
+		assertEquals(3, recorder.types.size());
+		assertEquals(ASR.API_RESP_TYPE_LAST, (int) recorder.types.get(2));
+	}
+
+	@Test
+	public void saturatedIsUnavailable() throws Exception {
+		when(asrService.handleASRUp(eq("session-1"), eq(ASRSession.ENDPOINT_GRPC), anyBoolean(),
+				any(Publisher.class))).thenReturn(Mono.error(
+				new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "ASR upstream saturated")));
+
+		Recorder recorder = new Recorder();
+		call(recorder);
+
+		assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+		assertEquals(Status.Code.UNAVAILABLE, Status.fromThrowable(recorder.error.get()).getCode());
+	}
+
+	private StreamObserver<ASR.APIRequest> call(Recorder recorder) {
+		Metadata headers = new Metadata();
+		headers.put(GRPCHandler.ID, "session-1");
+		Channel session = ClientInterceptors.intercept(channel, MetadataUtils.newAttachHeadersInterceptor(headers));
+		return ClientCalls.asyncBidiStreamingCall(session.newCall(GRPCHandler.RECOGNIZE, CallOptions.DEFAULT), recorder);
+	}
+
+	private static ASR.APIRequest request(int type) {
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = type;
+		return request;
+	}
+
+	private static ASR.APIResponse response(int type) {
+		ASR.APIResponse response = new ASR.APIResponse();
+		response.type = type;
+		response.id = "session-1";
+		return response;
+	}
+
+	private static class Recorder implements StreamObserver<ASR.APIResponse> {
+
+		private final List<Integer> types = new CopyOnWriteArrayList<>();
+
+		private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		@Override
+		public void onNext(ASR.APIResponse response) {
+			types.add(response.type);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error.set(throwable);
+			done.countDown();
+		}
+
+		@Override
+		public void onCompleted() {
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,369 @@
+package com.ecarx.asrapi.load;
+
+import com.ecarx.asrapi.ASRApp;
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.ecarx.asrapi.executor.ExecutionService;
+import com.ecarx.asrapi.executor.VirtualBulkhead;
+import com.google.protobuf.nano.MessageNano;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/7
+ * @desc open-model load driver for /asr/up and /asr/down.
+ * <p>
+ * Sessions start on a fixed schedule and audio frames are sent on a fixed real-time schedule, every
+ * latency is measured from the time the schedule intended, not from when the driver got around to
+ * it, so a stalled server shows up in the percentiles instead of slowing the load down
+ * (no coordinated omission). Latency to first partial is measured from the session start, latency
+ * to final result from the time LAST was due.
+ * <p>
+ * Without --target the stand-in ASR and NLU servers and the application are started in process:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dstart-class=com.ecarx.asrapi.load.LoadDriver \
+ *     -Dexec.args="--concurrency=200 --duration=60"
+ * </pre>
+ * Options, durations in milliseconds unless noted: target, concurrency (sessions in flight, or rate
+ * in sessions/s), duration (seconds), utterance, frame, audio (raw 16 kHz pcm file, synthetic noise
+ * otherwise), partial-latency, result-latency, partial-every, nlu-latency, backends (stand-in asr servers
+ * balanced by the application), backend-skew (extra partial latency of each further backend), mode (platform or virtual
+ * executor threads of the in-process application, virtual needs java 21), app.* (properties of the in-process
+ * application, e.g. --app.executor.upstream.threads=5000). The most threads the upstream
+ * and NLU bulkheads of the in-process application held are reported with the latencies, platform or
+ * virtual ones, to compare both modes run with the same load. Peak thread count and heap of the jvm
+ * include the driver and the stand-in servers.
+ */
+public class LoadDriver {
+
+	private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+	private static final TrustManager[] TRUST_MANAGERS = {new X509TrustManager() {
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType) {
+		}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType) {
+		}
+
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return new X509Certificate[0];
+		}
+	}};
+
+	private static final SSLContext TRUST_ALL = trustAll();
+
+	private final Recorder firstPartial = new Recorder(3);
+
+	private final Recorder finalResult = new Recorder(3);
+
+	private final AtomicLong completed = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private final OkHttpClient client;
+
+	private final String target;
+
+	private final byte[] audio;
+
+	private final int frameMillis;
+
+	private final int frameBytes;
+
+	// executors of the in-process application, null against a target
+	private final ExecutionService app;
+
+	private LoadDriver(String target, byte[] audio, int frameMillis, @Nullable ExecutionService app) {
+		this.target = target;
+		this.app = app;
+		this.audio = audio;
+		this.frameMillis = frameMillis;
+		this.frameBytes = frameMillis * 32;
+
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.setMaxRequests(Integer.MAX_VALUE);
+		dispatcher.setMaxRequestsPerHost(Integer.MAX_VALUE);
+		this.client = new OkHttpClient.Builder()
+				.dispatcher(dispatcher)
+				.connectionPool(new ConnectionPool(1000, 1, TimeUnit.MINUTES))
+				// one connection per session, as every car brings its own
+				.protocols(Collections.singletonList(Protocol.HTTP_1_1))
+				// the bundled certificate is self-signed
+				.sslSocketFactory(TRUST_ALL.getSocketFactory(), (X509TrustManager) TRUST_MANAGERS[0])
+				.hostnameVerifier((host, session) -> true)
+				.readTimeout(60, TimeUnit.SECONDS)
+				.writeTimeout(60, TimeUnit.SECONDS)
+				.build();
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		Map<String, String> options   = options(args);
+		int                 utterance = Integer.parseInt(options.getOrDefault("utterance", "3000"));
+		int                 frame     = Integer.parseInt(options.getOrDefault("frame", "20"));
+		int                 duration  = Integer.parseInt(options.getOrDefault("duration", "60"));
+		double              rate      = options.containsKey("rate") ? Double.parseDouble(options.get("rate"))
+				: Integer.parseInt(options.getOrDefault("concurrency", "100")) * 1000.0 / utterance;
+		byte[]              audio     = audio(options.get("audio"), utterance);
+		String              target    = options.get("target");
+
+		List<StubASRServer>            asr     = new ArrayList<>();
+		StubNLUServer                  nlu     = null;
+		ConfigurableApplicationContext context = null;
+		if (null == target) {
+			long partialLatency = Long.parseLong(options.getOrDefault("partial-latency", "100"));
+			long skew           = Long.parseLong(options.getOrDefault("backend-skew", "0"));
+			int  backends       = Integer.parseInt(options.getOrDefault("backends", "1"));
+			for (int i = 0; i < backends; i++) {
+				asr.add(new StubASRServer(partialLatency + i * skew,
+						Long.parseLong(options.getOrDefault("result-latency", "200")),
+						Integer.parseInt(options.getOrDefault("partial-every", "10"))));
+			}
+			String urls = asr.stream().map(StubASRServer::getUrl).collect(Collectors.joining(","));
+			nlu = new StubNLUServer(Long.parseLong(options.getOrDefault("nlu-latency", "50")));
+			List<String> properties = new ArrayList<>(Arrays.asList("--server.port=0", "--management.server.port=0",
+					"--asr.urls=" + urls, "--nlu.url=" + nlu.getUrl(),
+					"--executor.mode=" + options.getOrDefault("mode", "platform"), "--logging.level.com.ecarx=WARN"));
+			// --app.executor.upstream.threads=5000 and alike are handed to the application
+			options.forEach((key, value) -> {
+				if (key.startsWith("app.")) {
+					properties.add("--" + key.substring(4) + "=" + value);
+				}
+			});
+			context = new SpringApplicationBuilder(ASRApp.class).web(WebApplicationType.REACTIVE)
+					.run(properties.toArray(new String[0]));
+			target = "https://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+		}
+
+		try {
+			new LoadDriver(target, audio, frame, null == context ? null : context.getBean(ExecutionService.class))
+					.run(rate, duration);
+		} finally {
+			if (null != context) {
+				context.close();
+			}
+			for (StubASRServer backend : asr) {
+				System.out.printf("backend %s: %d sessions%n", backend.getUrl(), backend.getSessions());
+				backend.close();
+			}
+			if (null != nlu) {
+				nlu.close();
+			}
+		}
+		System.exit(0);
+	}
+
+	private void run(double rate, int duration) throws InterruptedException {
+
+		int            sessions = (int) (rate * duration);
+		long           period   = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+		CountDownLatch done     = new CountDownLatch(sessions);
+		long           start    = System.nanoTime();
+		System.out.printf("%d sessions at %.1f/s against %s%n", sessions, rate, target);
+		ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+		ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+
+		for (int i = 0; i < sessions; i++) {
+			long intended = start + i * period;
+			LockSupport.parkNanos(intended - System.nanoTime());
+			session("load-" + i + "-" + start, intended, done);
+		}
+		done.await(duration + 60L, TimeUnit.SECONDS);
+		long elapsed = System.nanoTime() - start;
+
+		System.out.printf("completed %d, failed %d, %.1f sessions/s%n", completed.get(), failed.get(),
+				completed.get() * 1e9 / elapsed);
+		report("first partial", firstPartial.getIntervalHistogram());
+		report("final result", finalResult.getIntervalHistogram());
+		long peakHeap = ManagementFactory.getMemoryPoolMXBeans().stream()
+				.filter(pool -> MemoryType.HEAP == pool.getType())
+				.mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+		if (null != app) {
+			System.out.printf("app peak %s threads: upstream %d, nlu %d%n",
+					app.upstream() instanceof VirtualBulkhead ? "virtual" : "platform",
+					app.upstream().getLargestPoolSize(), app.nlu().getLargestPoolSize());
+		}
+		System.out.printf("jvm peak threads %d, peak heap %.1f MB%n",
+				ManagementFactory.getThreadMXBean().getPeakThreadCount(), peakHeap / 1048576.0);
+	}
+
+	private void session(String id, long intended, CountDownLatch done) {
+
+		long lastDue = intended + TimeUnit.MILLISECONDS.toNanos(audio.length / frameBytes * frameMillis);
+
+		Request down = new Request.Builder().url(target + "/asr/down?id=" + id)
+				.post(RequestBody.create(OCTET_STREAM, new byte[0])).build();
+		client.newCall(down).enqueue(new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				failed.incrementAndGet();
+				done.countDown();
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				boolean partial = false;
+				boolean last    = false;
+				try (BufferedSource source = response.body().source()) {
+					while (!last && !source.exhausted()) {
+						ASR.APIResponse frame = ASR.APIResponse.parseFrom(source.readByteArray(source.readIntLe()));
+						long            now   = System.nanoTime();
+						if (!partial && ASR.API_RESP_TYPE_MIDDLE == frame.type) {
+							partial = true;
+							firstPartial.recordValue(TimeUnit.NANOSECONDS.toMicros(now - intended));
+						}
+						if (ASR.API_RESP_TYPE_LAST == frame.type) {
+							last = true;
+							finalResult.recordValue(TimeUnit.NANOSECONDS.toMicros(Math.max(0, now - lastDue)));
+						}
+					}
+				} catch (IOException e) {
+					last = false;
+				}
+				(last ? completed : failed).incrementAndGet();
+				done.countDown();
+			}
+		});
+
+		Request up = new Request.Builder().url(target + "/asr/up?id=" + id).post(new RequestBody() {
+			@Override
+			public MediaType contentType() {
+				return OCTET_STREAM;
+			}
+
+			@Override
+			public void writeTo(BufferedSink sink) throws IOException {
+				write(sink, param(id));
+				for (int offset = 0, k = 0; offset + frameBytes <= audio.length; offset += frameBytes, k++) {
+					// real-time pacing against the intended schedule, late frames are sent at once
+					LockSupport.parkNanos(intended + TimeUnit.MILLISECONDS.toNanos(k * frameMillis) - System.nanoTime());
+					write(sink, data(audio, offset, frameBytes));
+				}
+				LockSupport.parkNanos(lastDue - System.nanoTime());
+				ASR.APIRequest last = new ASR.APIRequest();
+				last.apiReqType = ASR.API_REQ_TYPE_LAST;
+				last.last = new ASR.ApiLast();
+				write(sink, last);
+			}
+		}).build();
+		client.newCall(up).enqueue(new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				response.close();
+			}
+		});
+	}
+
+	private static void write(BufferedSink sink, MessageNano message) throws IOException {
+		byte[] bytes = MessageNano.toByteArray(message);
+		sink.writeIntLe(bytes.length);
+		sink.write(bytes);
+		sink.flush();
+	}
+
+	private static ASR.APIRequest param(String id) {
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = ASR.API_REQ_TYPE_PARAM;
+		request.param = new ASR.ApiParam();
+		request.param.cuid = id;
+		request.param.sampleRate = 16000;
+		request.param.format = "pcm";
+		return request;
+	}
+
+	private static ASR.APIRequest data(byte[] audio, int offset, int length) {
+		byte[] pcm = new byte[length];
+		System.arraycopy(audio, offset, pcm, 0, length);
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = ASR.API_REQ_TYPE_DATA;
+		request.data = new ASR.ApiData();
+		request.data.len = length;
+		request.data.postData = pcm;
+		return request;
+	}
+
+	private static byte[] audio(String file, int utterance) throws IOException {
+		if (null != file) {
+			return Files.readAllBytes(Paths.get(file));
+		}
+		byte[] pcm = new byte[utterance * 32];
+		new Random(utterance).nextBytes(pcm);
+		return pcm;
+	}
+
+	private static void report(String name, Histogram histogram) {
+		System.out.printf("%-14s p50 %8.1f ms  p99 %8.1f ms  p999 %8.1f ms  max %8.1f ms  (%d)%n", name,
+				histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+				histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0,
+				histogram.getTotalCount());
+	}
+
+	private static SSLContext trustAll() {
+		try {
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(null, TRUST_MANAGERS, new SecureRandom());
+			return context;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Map<String, String> options(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (arg.startsWith("--") && index > 2) {
+				options.put(arg.substring(2, index), arg.substring(index + 1));
+			}
+		}
+		return options;
+	}
+}
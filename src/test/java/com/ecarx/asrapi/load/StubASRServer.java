@@ -0,0 +1,173 @@
+package com.ecarx.asrapi.load;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import com.google.protobuf.nano.MessageNano;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/7
+ * @desc stand-in asr backend speaking the /up and /down length-prefixed protocol. A MIDDLE is
+ * emitted every few DATA frames after the partial latency, RES and LAST after the result latency
+ * once LAST is received. The transcript contains the session id, so NLU results are never cached.
+ */
+public class StubASRServer implements Closeable {
+
+	private final ConcurrentMap<String, BlockingQueue<ASR.APIResponse>> streams = new ConcurrentHashMap<>();
+
+	private final HttpServer server;
+
+	private final ExecutorService workers = Executors.newCachedThreadPool();
+
+	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+
+	private final long partialLatency;
+
+	private final long resultLatency;
+
+	private final int partialEvery;
+
+	private final AtomicInteger sessions = new AtomicInteger();
+
+	public StubASRServer(long partialLatency, long resultLatency, int partialEvery) throws IOException {
+		this.partialLatency = partialLatency;
+		this.resultLatency = resultLatency;
+		this.partialEvery = partialEvery;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		server.createContext("/up", this::handleUp);
+		server.createContext("/down", this::handleDown);
+		server.setExecutor(workers);
+		server.start();
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public int getSessions() {
+		return sessions.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		scheduler.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	private void handleUp(HttpExchange exchange) throws IOException {
+
+		String                         id     = id(exchange);
+		BlockingQueue<ASR.APIResponse> stream = stream(id);
+		String                         text   = "导航到" + id;
+		int                            frames = 0;
+		try (DataInputStream in = new DataInputStream(exchange.getRequestBody())) {
+			while (true) {
+				ASR.APIRequest request = ASR.APIRequest.parseFrom(readFrame(in));
+				if (ASR.API_REQ_TYPE_DATA == request.apiReqType && 0 == ++frames % partialEvery) {
+					String partial = text.substring(0, Math.min(text.length(), frames / partialEvery));
+					scheduler.schedule(() -> stream.offer(response(id, ASR.API_RESP_TYPE_MIDDLE, partial)),
+							partialLatency, TimeUnit.MILLISECONDS);
+				}
+				if (ASR.API_REQ_TYPE_LAST == request.apiReqType || ASR.API_REQ_TYPE_CANCEL == request.apiReqType) {
+					scheduler.schedule(() -> {
+						stream.offer(response(id, ASR.API_RESP_TYPE_RES, text));
+						stream.offer(response(id, ASR.API_RESP_TYPE_LAST, text));
+					}, resultLatency, TimeUnit.MILLISECONDS);
+					break;
+				}
+			}
+		} catch (EOFException e) {
+			stream.offer(response(id, ASR.API_RESP_TYPE_LAST, text));
+		}
+		byte[] ok = "ok".getBytes();
+		exchange.sendResponseHeaders(200, ok.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(ok);
+		}
+	}
+
+	private void handleDown(HttpExchange exchange) throws IOException {
+
+		String                         id     = id(exchange);
+		BlockingQueue<ASR.APIResponse> stream = stream(id);
+		sessions.incrementAndGet();
+		drain(exchange.getRequestBody());
+		exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+		exchange.sendResponseHeaders(200, 0);
+		try (OutputStream out = exchange.getResponseBody()) {
+			while (true) {
+				ASR.APIResponse response = stream.poll(60, TimeUnit.SECONDS);
+				if (null == response) {
+					break;
+				}
+				byte[] body = MessageNano.toByteArray(response);
+				out.write(new byte[]{(byte) body.length, (byte) (body.length >>> 8), (byte) (body.length >>> 16),
+						(byte) (body.length >>> 24)});
+				out.write(body);
+				out.flush();
+				if (ASR.API_RESP_TYPE_LAST == response.type) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			streams.remove(id);
+		}
+	}
+
+	private BlockingQueue<ASR.APIResponse> stream(String id) {
+		return streams.computeIfAbsent(id, key -> new LinkedBlockingQueue<>());
+	}
+
+	private static ASR.APIResponse response(String id, int type, String text) {
+		ASR.APIResponse response = new ASR.APIResponse();
+		response.id = id;
+		response.type = type;
+		response.result = new ASR.ASRResult();
+		response.result.word = new String[]{text};
+		return response;
+	}
+
+	private static byte[] readFrame(DataInputStream in) throws IOException {
+		int    length = Integer.reverseBytes(in.readInt());
+		byte[] frame  = new byte[length];
+		in.readFully(frame);
+		return frame;
+	}
+
+	static String id(HttpExchange exchange) {
+		String query = exchange.getRequestURI().getRawQuery();
+		for (String pair : null == query ? new String[0] : query.split("&")) {
+			if (pair.startsWith("id=")) {
+				return pair.substring(3);
+			}
+		}
+		return "";
+	}
+
+	static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[1024];
+		while (in.read(buffer) >= 0) {
+		}
+	}
+}
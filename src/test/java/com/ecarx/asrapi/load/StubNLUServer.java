@@ -0,0 +1,80 @@
+package com.ecarx.asrapi.load;
+
+import com.alibaba.fastjson.JSONObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author ITACHY
+ * @date 2018/12/7
+ * @desc stand-in NLU server implementing login, talk, fetch and logout, every call answers after
+ * the configured latency
+ */
+public class StubNLUServer implements Closeable {
+
+	private final AtomicLong tokens = new AtomicLong();
+
+	private final HttpServer server;
+
+	private final ExecutorService workers = Executors.newCachedThreadPool();
+
+	private final long latency;
+
+	public StubNLUServer(long latency) throws IOException {
+		this.latency = latency;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		server.createContext("/login", exchange -> {
+			JSONObject json = new JSONObject();
+			json.put("accessToken", "token-" + tokens.incrementAndGet());
+			respond(exchange, json);
+		});
+		server.createContext("/talk", exchange -> {
+			JSONObject json = new JSONObject();
+			json.put("code", 0);
+			respond(exchange, json);
+		});
+		server.createContext("/fetch", exchange -> {
+			JSONObject json = new JSONObject();
+			json.put("domain", "navigation");
+			json.put("intent", "navigate_to");
+			respond(exchange, json);
+		});
+		server.createContext("/logout", exchange -> respond(exchange, new JSONObject()));
+		server.setExecutor(workers);
+		server.start();
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		workers.shutdownNow();
+	}
+
+	private void respond(HttpExchange exchange, JSONObject json) throws IOException {
+		StubASRServer.drain(exchange.getRequestBody());
+		try {
+			Thread.sleep(latency);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		byte[] body = json.toJSONString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
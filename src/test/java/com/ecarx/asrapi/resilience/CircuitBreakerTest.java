@@ -0,0 +1,64 @@
+package com.ecarx.asrapi.resilience;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void opensAfterConsecutiveFailures() {
+		CircuitBreaker breaker = new CircuitBreaker("nlu", 3, 60000);
+		breaker.onFailure();
+		breaker.onFailure();
+		breaker.onSuccess();
+		breaker.onFailure();
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void trialClosesOrReopens() {
+		CircuitBreaker breaker = new CircuitBreaker("nlu", 1, 0);
+		breaker.onFailure();
+		assertTrue(breaker.allowRequest());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		// one trial at a time
+		assertFalse(breaker.allowRequest());
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		assertTrue(breaker.allowRequest());
+		breaker.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void cancelledTrialReleasesTheSlot() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker("nlu", 1, 50);
+		breaker.onFailure();
+		Thread.sleep(60);
+		assertTrue(breaker.allowRequest());
+		breaker.onCancel();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		// open again for the full duration, then the next trial runs
+		assertFalse(breaker.allowRequest());
+		Thread.sleep(60);
+		assertTrue(breaker.allowRequest());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+	}
+
+	@Test
+	public void cancelOutsideTrialIsIgnored() {
+		CircuitBreaker breaker = new CircuitBreaker("nlu", 1, 0);
+		breaker.onCancel();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+}
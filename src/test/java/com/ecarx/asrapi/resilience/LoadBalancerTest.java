@@ -0,0 +1,96 @@
+package com.ecarx.asrapi.resilience;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LoadBalancerTest {
+
+	private final LoadBalancer balancer = new LoadBalancer("asr", Arrays.asList("http://a", "http://b"), 2, 1000,
+			10000, new SimpleMeterRegistry());
+
+	private final LoadBalancer.Backend a = balancer.getBackends().get(0);
+
+	private final LoadBalancer.Backend b = balancer.getBackends().get(1);
+
+	@Test
+	public void picksLessLoadedAndFaster() {
+		a.start();
+		for (int i = 0; i < 10; i++) {
+			assertSame(b, balancer.pick());
+		}
+		a.finish();
+		balancer.onLatency(a, TimeUnit.MILLISECONDS.toNanos(200));
+		balancer.onLatency(b, TimeUnit.MILLISECONDS.toNanos(20));
+		for (int i = 0; i < 10; i++) {
+			assertSame(b, balancer.pick());
+		}
+	}
+
+	@Test
+	public void keyStaysOnItsBackend() {
+		LoadBalancer.Backend first = balancer.select("session-1");
+		first.start();
+		first.start();
+		assertSame(first, balancer.select("session-1"));
+		balancer.unpin("session-1");
+		assertEquals(first == a ? b : a, balancer.select("session-1"));
+	}
+
+	@Test
+	public void ejectedUntilCheckPasses() {
+		balancer.onFailure(a);
+		balancer.onFailure(a);
+		assertTrue(a.isEjected());
+		b.start();
+		for (int i = 0; i < 10; i++) {
+			assertSame(b, balancer.pick());
+		}
+
+		balancer.check(backend -> Mono.just(false), backend -> Mono.error(new AssertionError()));
+		assertTrue(a.isEjected());
+		balancer.check(backend -> Mono.just(a == backend), backend -> Mono.error(new AssertionError()));
+		assertFalse(a.isEjected());
+	}
+
+	@Test
+	public void slowBackendNeedsFastProbe() {
+		balancer.onFailure(a);
+		balancer.onLatency(a, TimeUnit.SECONDS.toNanos(2));
+		assertTrue(a.isEjected());
+
+		// answering is not enough, it must answer in time
+		balancer.check(backend -> Mono.just(true), backend -> Mono.just(TimeUnit.SECONDS.toNanos(2)));
+		assertTrue(a.isEjected());
+		balancer.check(backend -> Mono.just(true), backend -> Mono.just(TimeUnit.MILLISECONDS.toNanos(100)));
+		assertFalse(a.isEjected());
+		// still slower than b, but the only backend left once b is ejected
+		balancer.onFailure(b);
+		balancer.onFailure(b);
+		assertSame(a, balancer.pick());
+	}
+
+	@Test
+	public void latencyFadesWithoutSamples() throws InterruptedException {
+		LoadBalancer fading = new LoadBalancer("asr", Arrays.asList("http://a", "http://b"), 2, 1000, 50,
+				new SimpleMeterRegistry());
+		LoadBalancer.Backend slow = fading.getBackends().get(0);
+		LoadBalancer.Backend fast = fading.getBackends().get(1);
+		fading.onLatency(slow, TimeUnit.MILLISECONDS.toNanos(500));
+		fading.onLatency(fast, TimeUnit.MILLISECONDS.toNanos(20));
+		assertTrue(slow.cost() > fast.cost());
+
+		Thread.sleep(500);
+
+		assertTrue(slow.cost() < 2);
+		assertEquals(500, slow.getLatency(), 0.001);
+	}
+}
@@ -0,0 +1,43 @@
+package com.ecarx.asrapi.resilience;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+	@Test
+	public void boundedAttempts() {
+		RetryPolicy policy = new RetryPolicy(3, 10, 100, 0.1);
+		policy.onCall();
+		assertTrue(policy.tryRetry(1));
+		assertTrue(policy.tryRetry(2));
+		assertFalse(policy.tryRetry(3));
+	}
+
+	@Test
+	public void budgetLimitsRetries() {
+		RetryPolicy policy = new RetryPolicy(2, 10, 100, 0.1);
+		// the initial burst of ten retries
+		for (int i = 0; i < 10; i++) {
+			assertTrue(policy.tryRetry(1));
+		}
+		assertFalse(policy.tryRetry(1));
+		// ten calls earn one retry
+		for (int i = 0; i < 10; i++) {
+			policy.onCall();
+		}
+		assertTrue(policy.tryRetry(1));
+		assertFalse(policy.tryRetry(1));
+	}
+
+	@Test
+	public void backoffIsCapped() {
+		RetryPolicy policy = new RetryPolicy(10, 10, 100, 0.1);
+		for (int attempts = 1; attempts < 30; attempts++) {
+			long backoff = policy.backoff(attempts);
+			assertTrue(backoff >= 0 && backoff <= Math.min(100, 10L << (attempts - 1)));
+		}
+	}
+}
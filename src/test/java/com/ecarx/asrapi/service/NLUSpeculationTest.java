@@ -0,0 +1,63 @@
+package com.ecarx.asrapi.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class NLUSpeculationTest {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	private final List<String> dialogs = new CopyOnWriteArrayList<>();
+
+	private final NLUSpeculation speculation = new NLUSpeculation(text -> {
+		dialogs.add(text);
+		return Mono.just("nlu:" + text).delayElement(Duration.ofMillis(50));
+	}, Duration.ofMillis(20), registry);
+
+	@Test
+	public void stableMiddleIsReused() throws InterruptedException {
+		speculation.onMiddle("导航到东站");
+		Thread.sleep(100);
+
+		String nlu = speculation.onResult("导航到东站").block(Duration.ofSeconds(1));
+
+		assertEquals("nlu:导航到东站", nlu);
+		assertEquals(1, dialogs.size());
+		assertEquals(1, count("hit"), 0);
+	}
+
+	@Test
+	public void differentResultStartsOver() throws InterruptedException {
+		speculation.onMiddle("导航到东");
+		Thread.sleep(100);
+
+		String nlu = speculation.onResult("导航到东站").block(Duration.ofSeconds(1));
+
+		assertEquals("nlu:导航到东站", nlu);
+		assertEquals(2, dialogs.size());
+		assertEquals(1, count("miss"), 0);
+	}
+
+	@Test
+	public void middleAfterResultKeepsTheDialog() throws InterruptedException {
+		Mono<String> dialog = speculation.onResult("打开空调");
+		// the next sentence starts before LAST and never gets its RES
+		speculation.onMiddle("温度");
+		Thread.sleep(100);
+
+		assertEquals("nlu:打开空调", dialog.block(Duration.ofSeconds(1)));
+		assertEquals(0, count("cancelled"), 0);
+	}
+
+	private double count(String result) {
+		return registry.counter("nlu.speculative", "result", result).count();
+	}
+}
@@ -0,0 +1,116 @@
+package com.ecarx.asrapi.service;
+
+import com.ecarx.asrapi.configs.ASRConfig;
+import com.ecarx.asrapi.domain.ASRSession;
+import com.ecarx.asrapi.executor.ExecutionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SessionRegistryTest {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	private final ASRConfig config = new ASRConfig();
+
+	private SessionRegistry sessions;
+
+	@Before
+	public void setUp() {
+		config.setSessionIdle(60000L);
+		config.setSessionMaxAge(300000L);
+		config.setReapInterval(5000L);
+		// the reaper is run by the test
+		ExecutionService executionService = mock(ExecutionService.class);
+		when(executionService.scheduler()).thenReturn(mock(ScheduledExecutorService.class));
+		sessions = new SessionRegistry(config, executionService, registry);
+	}
+
+	@Test
+	public void upAndDownShareTheSession() {
+		ASRSession up   = sessions.acquire("car-1", ASRSession.ENDPOINT_ASR);
+		ASRSession down = sessions.acquire("car-1", ASRSession.ENDPOINT_ASR);
+
+		assertSame(up, down);
+		assertEquals(2, up.getCalls());
+		sessions.release(up);
+		assertFalse(up.isClosed());
+		assertEquals(1, sessions.sessions().size());
+		sessions.release(down);
+		assertTrue(up.isClosed());
+		assertTrue(sessions.sessions().isEmpty());
+	}
+
+	@Test
+	public void retainedSessionOutlivesItsCall() {
+		AtomicInteger closed  = new AtomicInteger();
+		ASRSession    session = sessions.acquire("car-1", ASRSession.ENDPOINT_ASR);
+		session.onClose(closed::incrementAndGet);
+		// the upstream call holds the session after the handler is done
+		sessions.retain(session);
+		sessions.release(session);
+		assertEquals(0, closed.get());
+
+		sessions.release(session);
+		assertEquals(1, closed.get());
+	}
+
+	@Test
+	public void closedSessionIsNotReused() {
+		ASRSession first = sessions.acquire("car-1", ASRSession.ENDPOINT_ASR);
+		assertTrue(sessions.close("car-1"));
+		assertFalse(sessions.close("car-1"));
+
+		ASRSession second = sessions.acquire("car-1", ASRSession.ENDPOINT_ASR);
+
+		assertNotSame(first, second);
+		assertTrue(first.isClosed());
+		assertFalse(second.isClosed());
+		// the late release of the closed session leaves the new one alone
+		sessions.release(first);
+		assertSame(second, sessions.sessions().iterator().next());
+	}
+
+	@Test
+	public void reapsIdleSessions() throws InterruptedException {
+		config.setSessionIdle(50L);
+		AtomicInteger closed = new AtomicInteger();
+		ASRSession    idle   = sessions.acquire("car-1", ASRSession.ENDPOINT_ASR);
+		idle.onClose(closed::incrementAndGet);
+		Thread.sleep(100);
+		ASRSession active = sessions.acquire("car-2", ASRSession.ENDPOINT_ASR);
+
+		sessions.reap();
+
+		assertTrue(idle.isClosed());
+		assertEquals(1, closed.get());
+		assertFalse(active.isClosed());
+		assertEquals(1, sessions.sessions().size());
+		assertEquals(1, registry.counter("asr.sessions.reaped", "state", "created").count(), 0);
+	}
+
+	@Test
+	public void reapsExpiredSessions() throws InterruptedException {
+		config.setSessionMaxAge(50L);
+		ASRSession session = sessions.acquire("car-1", ASRSession.ENDPOINT_ASR);
+		Thread.sleep(100);
+		session.touch();
+
+		sessions.reap();
+
+		assertTrue(session.isClosed());
+		assertTrue(sessions.sessions().isEmpty());
+	}
+}
@@ -0,0 +1,106 @@
+package com.ecarx.asrapi.service;
+
+import com.ecarx.asrapi.domain.ASRSession;
+import com.ecarx.asrapi.dto.nano.ASR;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okio.Buffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpstreamBodyTest {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final Counter flushes = registry.counter("flushes");
+
+	private final ASRSession session = new ASRSession("test", "test");
+
+	private final UpstreamBuffer requests = new UpstreamBuffer(16, registry.counter("overflow"));
+
+	private final Buffer sink = new Buffer();
+
+	@Test
+	public void nonDataIsFlushedAtOnce() {
+		requests.offer(request(ASR.API_REQ_TYPE_PARAM));
+		requests.offer(request(ASR.API_REQ_TYPE_LAST));
+
+		body(60000, Integer.MAX_VALUE).writeTo(sink);
+
+		assertEquals(2, (int) flushes.count());
+		assertEquals(ASRSession.State.LAST_SENT, session.getState());
+	}
+
+	@Test
+	public void dataIsCoalescedUpToCoalesceBytes() {
+		int frame = data().getSerializedSize() + 4;
+		for (int i = 0; i < 4; i++) {
+			requests.offer(data());
+		}
+		requests.offer(request(ASR.API_REQ_TYPE_LAST));
+
+		body(60000, 2 * frame).writeTo(sink);
+
+		// every second DATA frame, then LAST
+		assertEquals(3, (int) flushes.count());
+		assertEquals(5 * 4 + 4 * data().getSerializedSize() + request(ASR.API_REQ_TYPE_LAST).getSerializedSize(),
+				sink.size());
+	}
+
+	@Test
+	public void noWindowFlushesEveryFrame() {
+		for (int i = 0; i < 3; i++) {
+			requests.offer(data());
+		}
+		requests.offer(request(ASR.API_REQ_TYPE_LAST));
+
+		body(0, Integer.MAX_VALUE).writeTo(sink);
+
+		assertEquals(4, (int) flushes.count());
+	}
+
+	@Test
+	public void pendingDataIsFlushedWhenWindowCloses() throws InterruptedException {
+		requests.offer(data());
+		requests.offer(data());
+		Thread writer = new Thread(() -> body(50, Integer.MAX_VALUE).writeTo(sink));
+		writer.start();
+
+		// both frames go out in one flush once no frame arrives before the window closes
+		long deadline = System.currentTimeMillis() + 1000;
+		while (0 == flushes.count() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(1, (int) flushes.count());
+		assertTrue(session.reached(ASRSession.Stage.DATA_WRITTEN));
+
+		requests.offer(request(ASR.API_REQ_TYPE_LAST));
+		writer.join(1000);
+		assertEquals(2, (int) flushes.count());
+	}
+
+	private UpstreamBody body(long window, int coalesceBytes) {
+		return new UpstreamBody(session, requests, 1000, window, coalesceBytes, flushes);
+	}
+
+	private static ASR.APIRequest data() {
+		ASR.APIRequest request = request(ASR.API_REQ_TYPE_DATA);
+		request.data = new ASR.ApiData();
+		request.data.len = 640;
+		request.data.postData = new byte[640];
+		return request;
+	}
+
+	private static ASR.APIRequest request(int type) {
+		ASR.APIRequest request = new ASR.APIRequest();
+		request.apiReqType = type;
+		if (ASR.API_REQ_TYPE_PARAM == type) {
+			request.param = new ASR.ApiParam();
+		} else if (ASR.API_REQ_TYPE_LAST == type) {
+			request.last = new ASR.ApiLast();
+		}
+		return request;
+	}
+}
@@ -0,0 +1,60 @@
+package com.ecarx.asrapi.service;
+
+import com.ecarx.asrapi.dto.nano.ASR;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class UpstreamBufferTest {
+
+	private final Counter overflow = new SimpleMeterRegistry().counter("overflow");
+
+	private final UpstreamBuffer buffer = new UpstreamBuffer(4, overflow);
+
+	private final AtomicInteger demanded = new AtomicInteger();
+
+	@Before
+	public void setUp() {
+		buffer.onDemand(demanded::incrementAndGet);
+	}
+
+	@Test
+	public void requestBelowHighWater() {
+		buffer.offer(new ASR.APIRequest());
+		buffer.request();
+
+		assertEquals(1, demanded.get());
+		assertEquals(0, (int) overflow.count());
+	}
+
+	@Test
+	public void pausedAtHighWaterResumedAtLowWater() throws InterruptedException {
+		for (int i = 0; i < 4; i++) {
+			buffer.offer(new ASR.APIRequest());
+		}
+		buffer.request();
+
+		// demand is paused at the high-water mark
+		assertEquals(0, demanded.get());
+		assertEquals(1, (int) overflow.count());
+
+		assertNotNull(buffer.poll(0, TimeUnit.MILLISECONDS));
+		assertEquals(0, demanded.get());
+
+		// and resumed once the writer drained down to the low-water mark
+		assertNotNull(buffer.poll(0, TimeUnit.MILLISECONDS));
+		assertEquals(2, buffer.size());
+		assertEquals(1, demanded.get());
+
+		// only once
+		assertNotNull(buffer.poll(0, TimeUnit.MILLISECONDS));
+		assertEquals(1, demanded.get());
+	}
+}